@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2020 Bryan Larson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package codes.goblom.encumbered;
+
+import codes.goblom.executor.CommandContext;
+import codes.goblom.executor.Executor;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Player;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Command dispatch and tab completion through {@link Executor} with the 
+ * commands of the plugin registered.
+ * 
+ * @author Bryan Larson
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommandBenchmark {
+    
+    /**
+     * Prefix typed after "setmaterial". Empty lists every material, "S" goes 
+     * through partial matching and "STONE" is an exact material.
+     */
+    @Param({ "", "S", "STONE" })
+    public String materialPrefix;
+    
+    private Executor exec;
+    private Player sender;
+    private String[] calculate;
+    private String[] calculateAlias;
+    private String[] completeCommand;
+    private String[] completeMaterial;
+    
+    @Setup
+    public void setup() {
+        StandIns.install();
+        
+        Encumbered.CONFIG.set(EncumberedConfig.DEFAULT.withWeightTable(Inventories.weightTable(42)));
+        Encumbered.invalidateCaches();
+        
+        this.exec = new Executor(EncumberedPlugin.instance) {
+            @Override
+            public void sendHelp(CommandContext context) { }
+            
+            @Override
+            public void onError(CommandSender sender, Throwable e) {
+                throw new IllegalStateException(e);
+            }
+            
+            @Override
+            public void sendMessage(CommandSender sender, String message) { }
+        };
+        exec.addExecutor(new EncumberedCommands());
+        
+        this.sender = StandIns.player("BenchSender", Inventories.create(Inventories.Kind.MIXED, 42));
+        this.calculate = new String[] { "calculate", "BenchSender" };
+        this.calculateAlias = new String[] { "calc", "BenchSender" };
+        this.completeCommand = new String[] { "se" };
+        this.completeMaterial = new String[] { "setmaterial", materialPrefix };
+    }
+    
+    @Benchmark
+    public boolean dispatch() {
+        return exec.onCommand(sender, null, "encumbered", calculate);
+    }
+    
+    @Benchmark
+    public boolean dispatchAlias() {
+        return exec.onCommand(sender, null, "encumbered", calculateAlias);
+    }
+    
+    @Benchmark
+    public List<String> tabCompleteCommand() {
+        return exec.onTabComplete(sender, null, "encumbered", completeCommand);
+    }
+    
+    @Benchmark
+    public List<String> tabCompleteMaterial() {
+        return exec.onTabComplete(sender, null, "encumbered", completeMaterial);
+    }
+}
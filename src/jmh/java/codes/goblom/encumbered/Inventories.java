@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2020 Bryan Larson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package codes.goblom.encumbered;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.bukkit.Material;
+import org.bukkit.inventory.ItemStack;
+
+/**
+ * Builds the inventories used by the benchmarks. Everything is seeded so every 
+ * run weighs the same items.
+ * 
+ * @author Bryan Larson
+ */
+final class Inventories {
+    
+    /**
+     * Size of {@link org.bukkit.inventory.PlayerInventory#getContents()}
+     */
+    static final int PLAYER_SLOTS = 41;
+    
+    private static final Material[] ITEMS;
+    
+    static {
+        List<Material> items = new ArrayList();
+        
+        for (Material mat : Material.values()) {
+            if (mat.isLegacy() || mat.isAir() || !mat.isItem() || Encumbered.isContainer(mat)) continue;
+            
+            items.add(mat);
+        }
+        
+        ITEMS = items.toArray(new Material[0]);
+    }
+    
+    enum Kind {
+        EMPTY,
+        MIXED,
+        CONTAINERS
+    }
+    
+    private Inventories() { }
+    
+    /**
+     * 
+     * @return A weight table giving every item a weight between 0 and 10
+     */
+    static WeightTable weightTable(long seed) {
+        Random random = new Random(seed);
+        Map<Material, Double> weights = new EnumMap(Material.class);
+        
+        for (Material mat : ITEMS) {
+            weights.put(mat, Math.round(random.nextDouble() * 100) / 10.0);
+        }
+        
+        weights.put(Material.SHULKER_BOX, 1.0);
+        return WeightTable.compile(weights);
+    }
+    
+    static ItemStack[] create(Kind kind, long seed) {
+        Random random = new Random(seed);
+        ItemStack[] contents = new ItemStack[PLAYER_SLOTS];
+        
+        switch (kind) {
+            case MIXED:
+                for (int i = 0; i < contents.length; i++) {
+                    contents[i] = randomStack(random);
+                }
+                break;
+            case CONTAINERS:
+                for (int i = 0; i < contents.length; i++) {
+                    contents[i] = i % 2 == 0 ? randomBundle(random) : randomShulkerBox(random);
+                }
+                break;
+            default:
+                break;
+        }
+        
+        return contents;
+    }
+    
+    static ItemStack randomStack(Random random) {
+        Material mat = ITEMS[random.nextInt(ITEMS.length)];
+        
+        return new ItemStack(mat, 1 + random.nextInt(mat.getMaxStackSize()));
+    }
+    
+    private static ItemStack randomBundle(Random random) {
+        List<ItemStack> items = new ArrayList();
+        int count = 1 + random.nextInt(4);
+        
+        for (int i = 0; i < count; i++) {
+            items.add(randomStack(random));
+        }
+        
+        return StandIns.bundle(items);
+    }
+    
+    private static ItemStack randomShulkerBox(Random random) {
+        ItemStack[] contents = new ItemStack[27];
+        
+        for (int i = 0; i < contents.length; i++) {
+            // A few bundles so nested containers are weighed as well
+            contents[i] = i % 9 == 0 ? randomBundle(random) : randomStack(random);
+        }
+        
+        return StandIns.shulkerBox(contents);
+    }
+}
@@ -0,0 +1,286 @@
+/*
+ * Copyright (C) 2020 Bryan Larson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package codes.goblom.encumbered;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import org.bukkit.configuration.MemoryConfiguration;
+import org.bukkit.inventory.ItemStack;
+
+/**
+ * Drives thousands of synthetic players through the weight engine without a 
+ * server and reports how much of every tick the plugin would use.
+ * 
+ * Every tick some players change inventory slots, some try to pick up an item 
+ * and every player moves. The plugin work for a tick is marking the changed 
+ * slots, the pickup checks, the move handler fast path and evaluating the 
+ * changed players plus a round robin share of everyone, as the sweep does. 
+ * The evaluation runs on the simulated main thread, so the reported cost is 
+ * an upper bound of what the main thread pays on a server.
+ * 
+ * Arguments are key=value pairs, for example:
+ * players=2000 ticks=2400 warmup=400 churn=0.05 pickup=0.02 interval=5 seed=42
+ * 
+ * @author Bryan Larson
+ */
+public final class LoadSimulator {
+    
+    private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+    
+    private final int ticks;
+    private final int warmup;
+    private final double churn;
+    private final double pickup;
+    private final int interval;
+    private final Random random;
+    
+    private final List<SimPlayer> players = new ArrayList();
+    private final Set<SimPlayer> dirty = new LinkedHashSet();
+    private int next = 0;
+    
+    private long evaluated = 0;
+    private long transitions = 0;
+    private long pickupsDenied = 0;
+    
+    private LoadSimulator(Map<String, String> args) {
+        StandIns.install();
+        
+        this.ticks = Integer.parseInt(args.getOrDefault("ticks", "2400"));
+        this.warmup = Integer.parseInt(args.getOrDefault("warmup", "400"));
+        this.churn = Double.parseDouble(args.getOrDefault("churn", "0.05"));
+        this.pickup = Double.parseDouble(args.getOrDefault("pickup", "0.02"));
+        this.interval = Math.max(1, Integer.parseInt(args.getOrDefault("interval", "5")));
+        
+        long seed = Long.parseLong(args.getOrDefault("seed", "42"));
+        int count = Integer.parseInt(args.getOrDefault("players", "2000"));
+        
+        this.random = new Random(seed);
+        
+        MemoryConfiguration config = new MemoryConfiguration();
+        config.set("Can Pickup Item if Exceed Max Carry", false);
+        
+        Encumbered.CONFIG.set(EncumberedConfig.load(config, new MemoryConfiguration(), Logger.getGlobal()).withWeightTable(Inventories.weightTable(seed)));
+        Encumbered.invalidateCaches();
+        Map<UUID, Double> overrides = new ConcurrentHashMap();
+        Encumbered.capacity = new CapacityProvider() {
+            @Override
+            public double getMaxCarryWeight(UUID id) {
+                Double override = overrides.get(id);
+                
+                // Spread around the weight of a full mixed inventory so players cross the limit
+                return override != null ? override : 2000 + Math.floorMod(id.hashCode(), 6000);
+            }
+            
+            @Override
+            public void setMaxCarryWeight(UUID id, double weight) {
+                overrides.put(id, weight);
+            }
+        };
+        
+        for (int i = 0; i < count; i++) {
+            ItemStack[] contents = Inventories.create(Inventories.Kind.MIXED, seed + i);
+            
+            for (int slot = 0; slot < contents.length; slot++) {
+                if (random.nextInt(3) == 0) {
+                    contents[slot] = null;
+                }
+            }
+            
+            players.add(new SimPlayer(new UUID(0x5137, i), contents));
+        }
+    }
+    
+    public static void main(String[] argv) {
+        Map<String, String> args = new HashMap();
+        
+        for (String arg : argv) {
+            int split = arg.indexOf('=');
+            
+            if (split > 0) {
+                args.put(arg.substring(0, split), arg.substring(split + 1));
+            }
+        }
+        
+        new LoadSimulator(args).run();
+    }
+    
+    private void run() {
+        long[] samples = new long[ticks];
+        
+        for (int tick = -warmup; tick < ticks; tick++) {
+            List<int[]> changes = new ArrayList();
+            List<ItemStack> pickups = new ArrayList();
+            
+            // The server side of the tick, not measured
+            for (int i = 0; i < players.size(); i++) {
+                SimPlayer player = players.get(i);
+                
+                if (random.nextDouble() < churn) {
+                    int slot = random.nextInt(player.contents.length);
+                    
+                    player.contents[slot] = random.nextInt(3) == 0 ? null : Inventories.randomStack(random);
+                    changes.add(new int[] { i, slot });
+                }
+                
+                pickups.add(random.nextDouble() < pickup ? Inventories.randomStack(random) : null);
+            }
+            
+            long start = System.nanoTime();
+            
+            for (int[] change : changes) {
+                SimPlayer player = players.get(change[0]);
+                
+                player.ep.markSlotDirty(change[1]);
+                dirty.add(player);
+            }
+            
+            for (int i = 0; i < players.size(); i++) {
+                SimPlayer player = players.get(i);
+                ItemStack item = pickups.get(i);
+                
+                if (item != null) {
+                    pickup(player, item);
+                }
+                
+                // Move handler fast path
+                if (player.ep.isEncumbered()) {
+                    player.moves++;
+                }
+            }
+            
+            evaluate();
+            
+            if (tick >= 0) {
+                samples[tick] = System.nanoTime() - start;
+            }
+        }
+        
+        report(samples);
+    }
+    
+    private void pickup(SimPlayer player, ItemStack item) {
+        double current = player.ep.syncLedger(player.source);
+        
+        if (current + Encumbered.calculateWeight(item) > player.ep.getMaxCarryWeight()) {
+            pickupsDenied++;
+            return;
+        }
+        
+        for (int slot = 0; slot < player.contents.length; slot++) {
+            if (player.contents[slot] == null) {
+                player.contents[slot] = item;
+                player.ep.markSlotDirty(slot);
+                dirty.add(player);
+                return;
+            }
+        }
+    }
+    
+    /**
+     * Changed players first, then a round robin share so everyone is evaluated once per interval
+     */
+    private void evaluate() {
+        for (SimPlayer player : dirty) {
+            evaluate(player);
+        }
+        
+        dirty.clear();
+        
+        int share = (players.size() + interval - 1) / interval;
+        
+        for (int i = 0; i < share; i++) {
+            evaluate(players.get(next));
+            
+            if (++next == players.size()) {
+                next = 0;
+            }
+        }
+    }
+    
+    private void evaluate(SimPlayer player) {
+        EncumberedPlayer ep = player.ep;
+        InventorySnapshot snapshot = InventorySnapshot.capture(ep, player.source);
+        
+        snapshot.compute();
+        ep.applyWeights(snapshot.slots, snapshot.weights, snapshot.stamp);
+        evaluated++;
+        
+        if (snapshot.level != ep.getSpeedLevel()) {
+            ep.setSpeedLevel(snapshot.level);
+            ep.setState(snapshot.encumbered ? EncumbranceState.ENCUMBERED : EncumbranceState.NORMAL);
+            transitions++;
+        }
+    }
+    
+    private void report(long[] samples) {
+        long[] sorted = samples.clone();
+        Arrays.sort(sorted);
+        
+        double mean = Arrays.stream(sorted).average().orElse(0);
+        
+        System.out.println("Players:           " + players.size());
+        System.out.println("Measured ticks:    " + ticks + " (after " + warmup + " warmup ticks)");
+        System.out.println("Evaluated / tick:  " + String.format("%.1f", (double) evaluated / (ticks + warmup)));
+        System.out.println("Speed changes:     " + transitions);
+        System.out.println("Pickups denied:    " + pickupsDenied);
+        System.out.println();
+        System.out.println("Plugin cost per tick (microseconds)");
+        System.out.println("  mean   " + micros(mean));
+        System.out.println("  p50    " + micros(percentile(sorted, 0.50)));
+        System.out.println("  p90    " + micros(percentile(sorted, 0.90)));
+        System.out.println("  p99    " + micros(percentile(sorted, 0.99)));
+        System.out.println("  p99.9  " + micros(percentile(sorted, 0.999)));
+        System.out.println("  max    " + micros(sorted[sorted.length - 1]));
+        System.out.println("  p99 is " + String.format("%.2f", percentile(sorted, 0.99) * 100.0 / TICK_NANOS) + "% of a 50ms tick");
+    }
+    
+    private static long percentile(long[] sorted, double p) {
+        int index = (int) Math.ceil(p * sorted.length) - 1;
+        
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+    
+    private static String micros(double nanos) {
+        return String.format("%10.1f", nanos / 1000.0);
+    }
+    
+    private static class SimPlayer {
+        
+        private final EncumberedPlayer ep;
+        private final ItemStack[] contents;
+        private final InventorySource source;
+        private long moves = 0;
+        
+        SimPlayer(UUID id, ItemStack[] contents) {
+            this.ep = Encumbered.getPlayer(id);
+            this.contents = contents;
+            this.source = InventorySource.of(contents);
+            
+            ep.rescan(source);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2020 Bryan Larson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package codes.goblom.encumbered;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Lookups in the {@link PlayerRegistry} at different registry sizes.
+ * 
+ * @author Bryan Larson
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RegistryBenchmark {
+    
+    @Param({ "10", "1000", "10000", "100000" })
+    public int size;
+    
+    private UUID[] ids;
+    private UUID missing;
+    private int next;
+    
+    @Setup
+    public void setup() {
+        StandIns.install();
+        Encumbered.PLAYERS.clear();
+        
+        this.ids = new UUID[size];
+        
+        for (int i = 0; i < size; i++) {
+            ids[i] = new UUID(0xE7C, i);
+            Encumbered.getPlayer(ids[i]);
+        }
+        
+        this.missing = new UUID(0xE7C, -1);
+    }
+    
+    private UUID nextId() {
+        UUID id = ids[next];
+        
+        if (++next == ids.length) {
+            next = 0;
+        }
+        
+        return id;
+    }
+    
+    @Benchmark
+    public EncumberedPlayer getPlayer() {
+        return Encumbered.getPlayer(nextId());
+    }
+    
+    @Benchmark
+    public EncumberedPlayer getPlayerIfPresent() {
+        return Encumbered.getPlayerIfPresent(nextId());
+    }
+    
+    @Benchmark
+    public EncumberedPlayer getPlayerIfPresentMiss() {
+        return Encumbered.getPlayerIfPresent(missing);
+    }
+}
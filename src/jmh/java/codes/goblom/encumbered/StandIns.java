@@ -0,0 +1,286 @@
+/*
+ * Copyright (C) 2020 Bryan Larson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package codes.goblom.encumbered;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.ObjDoubleConsumer;
+import java.util.logging.Logger;
+import org.bukkit.Bukkit;
+import org.bukkit.GameMode;
+import org.bukkit.Material;
+import org.bukkit.Server;
+import org.bukkit.block.ShulkerBox;
+import org.bukkit.entity.Player;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.ItemFactory;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.PlayerInventory;
+import org.bukkit.inventory.meta.BlockStateMeta;
+import org.bukkit.inventory.meta.BundleMeta;
+import org.bukkit.inventory.meta.ItemMeta;
+import org.bukkit.persistence.PersistentDataContainer;
+
+/**
+ * Headless stand-ins for the Bukkit objects the weight engine touches. Every 
+ * stand-in is a {@link Proxy} that answers the handful of methods the plugin 
+ * calls and returns a default value for everything else.
+ * 
+ * @author Bryan Larson
+ */
+final class StandIns {
+    
+    private static final Map<UUID, Player> PLAYERS_BY_ID = new ConcurrentHashMap();
+    private static final Map<String, Player> PLAYERS_BY_NAME = new ConcurrentHashMap();
+    private static final PersistentDataContainer EMPTY_DATA = proxy(PersistentDataContainer.class, Collections.singletonMap("isEmpty", (args) -> true));
+    
+    private StandIns() { }
+    
+    /**
+     * Installs the stand-in server and a plugin instance that was never enabled. 
+     * Safe to call more than once.
+     */
+    static synchronized void install() {
+        if (Bukkit.getServer() == null) {
+            Bukkit.setServer(server());
+        }
+        
+        if (EncumberedPlugin.instance == null) {
+            try {
+                Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+                Field field = unsafeClass.getDeclaredField("theUnsafe");
+                field.setAccessible(true);
+                
+                // JavaPlugin refuses to be constructed outside of its class loader
+                Method allocate = unsafeClass.getMethod("allocateInstance", Class.class);
+                EncumberedPlugin plugin = (EncumberedPlugin) allocate.invoke(field.get(null), EncumberedPlugin.class);
+                
+                plugin.overrideStore = new MemoryOverrideStore();
+                Encumbered.capacity = CapacityProvider.of(plugin.overrideStore);
+                plugin.sweep = new EncumbranceSweep(plugin);
+                EncumberedPlugin.instance = plugin;
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("Unable to create the plugin stand-in", e);
+            }
+        }
+    }
+    
+    static Player player(String name, ItemStack[] contents) {
+        UUID id = UUID.nameUUIDFromBytes(name.getBytes());
+        PlayerInventory inv = playerInventory(contents);
+        Map<String, Function<Object[], Object>> answers = new HashMap();
+        
+        answers.put("getUniqueId", (args) -> id);
+        answers.put("getName", (args) -> name);
+        answers.put("getInventory", (args) -> inv);
+        answers.put("getGameMode", (args) -> GameMode.SURVIVAL);
+        answers.put("isOnline", (args) -> true);
+        answers.put("hasPermission", (args) -> true);
+        
+        Player player = proxy(Player.class, answers);
+        PLAYERS_BY_ID.put(id, player);
+        PLAYERS_BY_NAME.put(name, player);
+        
+        return player;
+    }
+    
+    static PlayerInventory playerInventory(ItemStack[] contents) {
+        Map<String, Function<Object[], Object>> answers = new HashMap();
+        
+        answers.put("getContents", (args) -> contents.clone());
+        answers.put("getStorageContents", (args) -> Arrays.copyOf(contents, 36));
+        answers.put("getItem", (args) -> contents[(Integer) args[0]]);
+        answers.put("getSize", (args) -> contents.length);
+        
+        return proxy(PlayerInventory.class, answers);
+    }
+    
+    static ItemStack bundle(List<ItemStack> items) {
+        Map<String, Function<Object[], Object>> answers = metaAnswers();
+        
+        answers.put("hasItems", (args) -> !items.isEmpty());
+        answers.put("getItems", (args) -> items);
+        
+        return withMeta(new ItemStack(Material.BUNDLE), proxy(BundleMeta.class, answers));
+    }
+    
+    static ItemStack shulkerBox(ItemStack[] contents) {
+        Map<String, Function<Object[], Object>> inventory = new HashMap();
+        inventory.put("getContents", (args) -> contents.clone());
+        inventory.put("getSize", (args) -> contents.length);
+        
+        Inventory inv = proxy(Inventory.class, inventory);
+        
+        Map<String, Function<Object[], Object>> box = new HashMap();
+        box.put("getInventory", (args) -> inv);
+        
+        ShulkerBox state = proxy(ShulkerBox.class, box);
+        
+        Map<String, Function<Object[], Object>> meta = metaAnswers();
+        meta.put("hasBlockState", (args) -> true);
+        meta.put("getBlockState", (args) -> state);
+        
+        return withMeta(new ItemStack(Material.SHULKER_BOX), proxy(BlockStateMeta.class, meta));
+    }
+    
+    /**
+     * Every stand-in meta has an empty PersistentDataContainer
+     */
+    private static Map<String, Function<Object[], Object>> metaAnswers() {
+        Map<String, Function<Object[], Object>> answers = new HashMap();
+        
+        answers.put("getPersistentDataContainer", (args) -> EMPTY_DATA);
+        
+        return answers;
+    }
+    
+    private static ItemStack withMeta(ItemStack stack, ItemMeta meta) {
+        stack.setItemMeta(meta);
+        return stack;
+    }
+    
+    private static Server server() {
+        Logger logger = Logger.getLogger("Encumbered-Bench");
+        ItemFactory factory = itemFactory();
+        Map<String, Function<Object[], Object>> answers = new HashMap();
+        
+        answers.put("getLogger", (args) -> logger);
+        answers.put("getName", (args) -> "StandIn");
+        answers.put("getVersion", (args) -> "bench");
+        answers.put("getBukkitVersion", (args) -> "1.18.1-R0.1-SNAPSHOT");
+        answers.put("getItemFactory", (args) -> factory);
+        answers.put("getPlayerExact", (args) -> PLAYERS_BY_NAME.get((String) args[0]));
+        answers.put("getOnlinePlayers", (args) -> Collections.unmodifiableCollection(PLAYERS_BY_NAME.values()));
+        answers.put("getPlayer", (args) -> args[0] instanceof UUID ? PLAYERS_BY_ID.get((UUID) args[0]) : PLAYERS_BY_NAME.get((String) args[0]));
+        
+        return proxy(Server.class, answers);
+    }
+    
+    private static ItemFactory itemFactory() {
+        Map<String, Function<Object[], Object>> answers = new HashMap();
+        
+        // Metas are never changed by the plugin so a stand-in meta is its own clone
+        answers.put("equals", (args) -> args[0] == args[1]);
+        answers.put("isApplicable", (args) -> true);
+        answers.put("asMetaFor", (args) -> args[0]);
+        answers.put("updateMaterial", (args) -> args[1]);
+        answers.put("getItemMeta", (args) -> proxy(ItemMeta.class, metaAnswers()));
+        
+        return proxy(ItemFactory.class, answers);
+    }
+    
+    @SuppressWarnings("unchecked")
+    static <T> T proxy(Class<T> type, Map<String, Function<Object[], Object>> answers) {
+        return (T) Proxy.newProxyInstance(StandIns.class.getClassLoader(), new Class<?>[] { type }, (proxy, method, args) -> {
+            String name = method.getName();
+            Function<Object[], Object> answer = answers.get(name);
+            
+            if (answer != null && !(name.equals("equals") && method.getParameterCount() == 1)) {
+                return answer.apply(args);
+            }
+            
+            switch (name) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return type.getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(proxy));
+                case "clone":
+                    return proxy;
+            }
+            
+            return defaultValue(method.getReturnType());
+        });
+    }
+    
+    private static Object defaultValue(Class<?> type) {
+        if (!type.isPrimitive() || type == void.class) return null;
+        if (type == boolean.class) return false;
+        if (type == char.class) return '\0';
+        if (type == long.class) return 0L;
+        if (type == float.class) return 0F;
+        if (type == double.class) return 0D;
+        if (type == int.class) return 0;
+        if (type == short.class) return (short) 0;
+        
+        return (byte) 0;
+    }
+    
+    /**
+     * In memory {@link OverrideStore} that never touches the disk
+     */
+    private static class MemoryOverrideStore implements OverrideStore {
+        
+        private final Map<UUID, Double> overrides = new ConcurrentHashMap();
+        
+        @Override
+        public String getName() {
+            return "memory";
+        }
+        
+        @Override
+        public void load() { }
+        
+        @Override
+        public double get(UUID id, double def) {
+            return overrides.getOrDefault(id, def);
+        }
+        
+        @Override
+        public boolean contains(UUID id) {
+            return overrides.containsKey(id);
+        }
+        
+        @Override
+        public void set(UUID id, double weight) {
+            overrides.put(id, weight);
+        }
+        
+        @Override
+        public void forEach(ObjDoubleConsumer<UUID> consumer) {
+            overrides.forEach(consumer::accept);
+        }
+        
+        @Override
+        public int size() {
+            return overrides.size();
+        }
+        
+        @Override
+        public int getPendingWrites() {
+            return 0;
+        }
+        
+        @Override
+        public long getLastFlushLatency() {
+            return 0;
+        }
+        
+        @Override
+        public void close() { }
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2020 Bryan Larson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package codes.goblom.encumbered;
+
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import org.bukkit.configuration.MemoryConfiguration;
+import org.bukkit.entity.Player;
+import org.bukkit.inventory.ItemStack;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Weighing whole player inventories through {@link Encumbered#calculateWeight(ItemStack)} 
+ * and the weight ledger of {@link EncumberedPlayer}.
+ * 
+ * @author Bryan Larson
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WeightBenchmark {
+    
+    @Param({ "EMPTY", "MIXED", "CONTAINERS" })
+    public String inventory;
+    
+    @Param({ "false", "true" })
+    public boolean itemCache;
+    
+    /**
+     * Gives every stack the weight lore, and with it ItemMeta
+     */
+    @Param({ "false", "true" })
+    public boolean tooltips;
+    
+    /**
+     * Weighs every stack with ItemMeta by its meta. With tooltips on, every 
+     * stack then goes through the item cache, and a hit still pays for a 
+     * copy of the meta and its hashCode and equals.
+     */
+    @Param({ "false", "true" })
+    public boolean customWeights;
+    
+    private ItemStack[] contents;
+    private InventorySource source;
+    private EncumberedPlayer ep;
+    
+    @Setup
+    public void setup() {
+        StandIns.install();
+        
+        MemoryConfiguration config = new MemoryConfiguration();
+        config.set("Item Weights.Custom Weight", customWeights);
+        
+        Encumbered.CONFIG.set(EncumberedConfig.load(config, new MemoryConfiguration(), Logger.getLogger("Encumbered-Bench")).withWeightTable(Inventories.weightTable(42)));
+        Encumbered.invalidateCaches();
+        Encumbered.itemCache = itemCache ? new ItemWeightCache(4096) : null;
+        
+        this.contents = Inventories.create(Inventories.Kind.valueOf(inventory), 42);
+        
+        if (tooltips) {
+            for (ItemStack item : contents) {
+                Encumbered.addWeightTooltip(item);
+            }
+        }
+        
+        Player player = StandIns.player("Weight" + inventory, contents);
+        this.source = InventorySource.of(player.getInventory());
+        this.ep = Encumbered.getPlayer(player);
+        
+        ep.rescan(source);
+    }
+    
+    @Benchmark
+    public double calculateWeight() {
+        double weight = 0;
+        
+        for (ItemStack item : contents) {
+            weight += Encumbered.calculateWeight(item);
+        }
+        
+        return weight;
+    }
+    
+    @Benchmark
+    public double rescan() {
+        return ep.rescan(source);
+    }
+    
+    @Benchmark
+    public double calculateCarriedWeight() {
+        return ep.calculateCarriedWeight();
+    }
+    
+    @Benchmark
+    public double calculateCarriedWeightOneDirtySlot() {
+        ep.markSlotDirty(0);
+        return ep.calculateCarriedWeight();
+    }
+}
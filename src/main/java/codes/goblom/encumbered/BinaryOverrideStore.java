@@ -0,0 +1,464 @@
+/*
+ * Copyright (C) 2020 Bryan Larson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package codes.goblom.encumbered;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.function.ObjDoubleConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Compact binary override backend for servers with a large amount of overrides.
+ * 
+ * overrides.dat is a memory-mapped table of fixed size records 
+ * (UUID as two longs, weight as a double) behind a small header. Changing an 
+ * existing override writes the new weight in place. New overrides are 
+ * appended to overrides.log and folded into overrides.dat when the store is 
+ * closed, or when it is loaded with more than {@link #COMPACT_THRESHOLD} 
+ * records in the log. Writes happen on the main thread, so they never 
+ * rewrite the table or wait for the disk.
+ * 
+ * Lookups go through an open addressing index of primitive arrays that 
+ * points into the mapped table.
+ * 
+ * @author Bryan Larson
+ */
+class BinaryOverrideStore implements OverrideStore {
+    
+    private static final int MAGIC = 0x454E434F; // ENCO
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int RECORD_SIZE = 24;
+    private static final int COMPACT_THRESHOLD = 4096;
+    
+    private final File dataFile;
+    private final File logFile;
+    private final boolean readOnly;
+    private final Logger logger;
+    
+    private FileChannel dataChannel;
+    private MappedByteBuffer data;
+    private FileChannel logChannel;
+    private int logRecords = 0;
+    
+    /**
+     * Weights of overrides that are only in the log so far
+     */
+    private double[] logValues = new double[16];
+    private int logValueCount = 0;
+    
+    /**
+     * Index. refs > 0 is record (ref - 1) of overrides.dat, 
+     * refs < 0 is entry (-ref - 1) of logValues, 0 is an empty slot
+     */
+    private long[] keysHigh;
+    private long[] keysLow;
+    private int[] refs;
+    private int size = 0;
+    
+    private volatile long lastFlushLatency = 0;
+    
+    /**
+     * 
+     * @param dataFile The table file
+     * @param logFile The append log
+     * @param readOnly If true nothing is ever written. Used to measure load times
+     * @param logger Where to report a failed compaction
+     */
+    BinaryOverrideStore(File dataFile, File logFile, boolean readOnly, Logger logger) {
+        this.dataFile = dataFile;
+        this.logFile = logFile;
+        this.readOnly = readOnly;
+        this.logger = logger;
+    }
+    
+    @Override
+    public String getName() {
+        return "binary";
+    }
+    
+    @Override
+    public synchronized void load() throws IOException {
+        if (!dataFile.exists() && !readOnly) {
+            writeTable(dataFile.toPath(), new long[0], new long[0], new int[0]);
+        }
+        
+        int records = 0;
+        
+        if (dataFile.exists()) {
+            if (readOnly) {
+                this.dataChannel = FileChannel.open(dataFile.toPath(), StandardOpenOption.READ);
+                this.data = dataChannel.map(FileChannel.MapMode.READ_ONLY, 0, dataChannel.size());
+            } else {
+                this.dataChannel = FileChannel.open(dataFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+                this.data = dataChannel.map(FileChannel.MapMode.READ_WRITE, 0, dataChannel.size());
+            }
+            
+            if (data.capacity() < HEADER_SIZE || data.getInt(0) != MAGIC) {
+                throw new IOException(dataFile.getName() + " is not an Encumbered override file");
+            }
+            
+            if (data.getInt(4) != VERSION) {
+                throw new IOException(dataFile.getName() + " has unsupported version " + data.getInt(4));
+            }
+            
+            records = data.getInt(8);
+            
+            if ((long) HEADER_SIZE + (long) records * RECORD_SIZE > data.capacity()) {
+                throw new IOException(dataFile.getName() + " is truncated");
+            }
+        }
+        
+        initIndex(Math.max(16, records * 2));
+        
+        for (int i = 0; i < records; i++) {
+            int offset = HEADER_SIZE + i * RECORD_SIZE;
+            int pos = indexOf(data.getLong(offset), data.getLong(offset + 8));
+            
+            if (refs[pos] == 0) {
+                insert(pos, data.getLong(offset), data.getLong(offset + 8), i + 1);
+            }
+        }
+        
+        if (logFile.exists()) {
+            replayLog();
+        }
+        
+        if (!readOnly) {
+            this.logChannel = FileChannel.open(logFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            
+            long whole = logChannel.size() / RECORD_SIZE * RECORD_SIZE;
+            
+            if (logChannel.size() != whole) {
+                // Drop the partial record of a crash, new records must start at a record boundary
+                logger.warning("Dropping a partial record at the end of " + logFile.getName());
+                
+                logChannel.truncate(whole);
+                logChannel.force(true);
+            }
+            
+            if (logRecords >= COMPACT_THRESHOLD) {
+                compact();
+            }
+        }
+    }
+    
+    private void replayLog() throws IOException {
+        try (FileChannel channel = FileChannel.open(logFile.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE * 1024);
+            
+            while (channel.read(buffer) > 0 || buffer.position() > 0) {
+                buffer.flip();
+                
+                if (buffer.remaining() < RECORD_SIZE) break; //Partial record from a crash
+                
+                while (buffer.remaining() >= RECORD_SIZE) {
+                    long high = buffer.getLong();
+                    long low = buffer.getLong();
+                    double weight = buffer.getDouble();
+                    
+                    setInMemory(high, low, weight);
+                    logRecords++;
+                }
+                
+                buffer.compact();
+            }
+        }
+    }
+    
+    @Override
+    public synchronized double get(UUID id, double def) {
+        int pos = indexOf(id.getMostSignificantBits(), id.getLeastSignificantBits());
+        
+        return refs[pos] == 0 ? def : valueOf(refs[pos]);
+    }
+    
+    @Override
+    public synchronized boolean contains(UUID id) {
+        return refs[indexOf(id.getMostSignificantBits(), id.getLeastSignificantBits())] != 0;
+    }
+    
+    @Override
+    public synchronized void set(UUID id, double weight) {
+        if (readOnly) throw new UnsupportedOperationException("Store is read only");
+        
+        long high = id.getMostSignificantBits();
+        long low = id.getLeastSignificantBits();
+        
+        if (setInMemory(high, low, weight)) return; //Updated in place
+        
+        ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+        record.putLong(high).putLong(low).putDouble(weight).flip();
+        
+        try {
+            while (record.hasRemaining()) {
+                logChannel.write(record);
+            }
+            
+            logRecords++;
+        } catch (IOException ex) {
+            throw new IllegalStateException("Unable to write " + logFile.getName(), ex);
+        }
+    }
+    
+    /**
+     * 
+     * @return true if the weight was written in place into overrides.dat
+     */
+    private boolean setInMemory(long high, long low, double weight) {
+        int pos = indexOf(high, low);
+        int ref = refs[pos];
+        
+        if (ref > 0 && !readOnly) {
+            data.putDouble(HEADER_SIZE + (ref - 1) * RECORD_SIZE + 16, weight);
+            return true;
+        }
+        
+        if (ref < 0) {
+            logValues[-ref - 1] = weight;
+            return false;
+        }
+        
+        if (logValueCount == logValues.length) {
+            logValues = Arrays.copyOf(logValues, logValues.length * 2);
+        }
+        
+        logValues[logValueCount++] = weight;
+        
+        if (ref > 0) {
+            refs[pos] = -logValueCount; //Read only store, shadow the table record
+            return false;
+        }
+        
+        if ((size + 1) * 2 > refs.length) {
+            resize(refs.length * 2);
+            pos = indexOf(high, low);
+        }
+        
+        insert(pos, high, low, -logValueCount);
+        return false;
+    }
+    
+    private double valueOf(int ref) {
+        if (ref > 0) {
+            return data.getDouble(HEADER_SIZE + (ref - 1) * RECORD_SIZE + 16);
+        }
+        
+        return logValues[-ref - 1];
+    }
+    
+    @Override
+    public synchronized void forEach(ObjDoubleConsumer<UUID> consumer) {
+        for (int i = 0; i < refs.length; i++) {
+            if (refs[i] != 0) {
+                consumer.accept(new UUID(keysHigh[i], keysLow[i]), valueOf(refs[i]));
+            }
+        }
+    }
+    
+    @Override
+    public synchronized int size() {
+        return size;
+    }
+    
+    @Override
+    public synchronized int getPendingWrites() {
+        return logRecords;
+    }
+    
+    @Override
+    public long getLastFlushLatency() {
+        return lastFlushLatency;
+    }
+    
+    /**
+     * Folds the log into a new overrides.dat and empties the log.
+     * 
+     * Java 8 cannot unmap a MappedByteBuffer, the mapping is released once 
+     * the buffer is garbage collected. Until then Windows refuses to replace 
+     * the file. When that happens the old table is mapped again and the log 
+     * is kept for the next compaction.
+     */
+    private void compact() throws IOException {
+        long start = System.nanoTime();
+        
+        Path target = dataFile.toPath();
+        Path temp = target.resolveSibling(dataFile.getName() + ".tmp");
+        
+        int[] newRefs = writeTable(temp, keysHigh, keysLow, refs);
+        
+        data.force();
+        this.data = null;
+        dataChannel.close();
+        this.dataChannel = null;
+        
+        try {
+            try {
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException ex) {
+            logger.log(Level.SEVERE, "Unable to replace " + dataFile.getName() + ". Keeping " + logRecords + " records in " + logFile.getName(), ex);
+            
+            Files.deleteIfExists(temp);
+            
+            this.dataChannel = FileChannel.open(target, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.data = dataChannel.map(FileChannel.MapMode.READ_WRITE, 0, dataChannel.size());
+            return;
+        }
+        
+        this.dataChannel = FileChannel.open(target, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.data = dataChannel.map(FileChannel.MapMode.READ_WRITE, 0, dataChannel.size());
+        this.refs = newRefs;
+        
+        logChannel.truncate(0);
+        logChannel.force(true);
+        this.logRecords = 0;
+        this.logValueCount = 0;
+        this.logValues = new double[16];
+        
+        this.lastFlushLatency = System.nanoTime() - start;
+        PluginStats.SAVE.record(lastFlushLatency);
+    }
+    
+    /**
+     * Writes every indexed override as a table file.
+     * 
+     * @return The refs of the index pointing into the new table
+     */
+    private int[] writeTable(Path path, long[] high, long[] low, int[] oldRefs) throws IOException {
+        int[] newRefs = new int[oldRefs.length];
+        int count = 0;
+        
+        for (int ref : oldRefs) {
+            if (ref != 0) count++;
+        }
+        
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE * 1024);
+            buffer.putInt(MAGIC).putInt(VERSION).putInt(count).putInt(0);
+            
+            int record = 0;
+            
+            for (int i = 0; i < oldRefs.length; i++) {
+                if (oldRefs[i] == 0) continue;
+                
+                if (buffer.remaining() < RECORD_SIZE) {
+                    buffer.flip();
+                    while (buffer.hasRemaining()) channel.write(buffer);
+                    buffer.clear();
+                }
+                
+                buffer.putLong(high[i]).putLong(low[i]).putDouble(valueOf(oldRefs[i]));
+                newRefs[i] = ++record;
+            }
+            
+            buffer.flip();
+            while (buffer.hasRemaining()) channel.write(buffer);
+            
+            channel.force(true);
+        }
+        
+        return newRefs;
+    }
+    
+    @Override
+    public synchronized void close() {
+        try {
+            if (!readOnly && dataChannel != null) {
+                if (logRecords > 0) {
+                    compact();
+                } else {
+                    data.force();
+                }
+            }
+            
+            if (logChannel != null) logChannel.close();
+            if (dataChannel != null) dataChannel.close();
+        } catch (IOException ex) {
+            throw new IllegalStateException("Unable to close " + dataFile.getName(), ex);
+        } finally {
+            this.data = null;
+        }
+    }
+    
+    /*
+     * Open addressing index with linear probing
+     */
+    
+    private void initIndex(int capacity) {
+        int size = Integer.highestOneBit(Math.max(16, capacity - 1)) << 1;
+        
+        this.keysHigh = new long[size];
+        this.keysLow = new long[size];
+        this.refs = new int[size];
+        this.size = 0;
+    }
+    
+    private int indexOf(long high, long low) {
+        int mask = refs.length - 1;
+        int pos = hash(high, low) & mask;
+        
+        while (refs[pos] != 0 && (keysHigh[pos] != high || keysLow[pos] != low)) {
+            pos = (pos + 1) & mask;
+        }
+        
+        return pos;
+    }
+    
+    private void insert(int pos, long high, long low, int ref) {
+        keysHigh[pos] = high;
+        keysLow[pos] = low;
+        refs[pos] = ref;
+        size++;
+    }
+    
+    private void resize(int capacity) {
+        long[] oldHigh = keysHigh;
+        long[] oldLow = keysLow;
+        int[] oldRefs = refs;
+        
+        initIndex(capacity);
+        
+        for (int i = 0; i < oldRefs.length; i++) {
+            if (oldRefs[i] != 0) {
+                insert(indexOf(oldHigh[i], oldLow[i]), oldHigh[i], oldLow[i], oldRefs[i]);
+            }
+        }
+    }
+    
+    private static int hash(long high, long low) {
+        long h = high ^ low;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        
+        return (int) h;
+    }
+}
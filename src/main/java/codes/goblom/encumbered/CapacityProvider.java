@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2020 Bryan Larson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package codes.goblom.encumbered;
+
+import java.util.UUID;
+
+/**
+ * Decides how much weight a player may carry before becoming over encumbered.
+ * 
+ * @author Bryan Larson
+ */
+public interface CapacityProvider {
+    
+    /**
+     * Uses the Max Carry Weight from config.yml for every player
+     */
+    static final CapacityProvider DEFAULT = new CapacityProvider() {
+        @Override
+        public double getMaxCarryWeight(UUID id) {
+            return Encumbered.getConfig().getDefaultMaxCarryWeight();
+        }
+
+        @Override
+        public void setMaxCarryWeight(UUID id, double weight) {
+            throw new UnsupportedOperationException("Custom max carry weights are not stored before the plugin is enabled");
+        }
+    };
+    
+    double getMaxCarryWeight(UUID id);
+    
+    void setMaxCarryWeight(UUID id, double weight);
+    
+    /**
+     * 
+     * @param store The store holding the custom max carry weights
+     * @return A provider using the custom max carry weight of a player, or the Max Carry Weight from config.yml
+     */
+    static CapacityProvider of(OverrideStore store) {
+        return new CapacityProvider() {
+            @Override
+            public double getMaxCarryWeight(UUID id) {
+                return store.get(id, Encumbered.getConfig().getDefaultMaxCarryWeight());
+            }
+
+            @Override
+            public void setMaxCarryWeight(UUID id, double weight) {
+                store.set(id, weight);
+            }
+        };
+    }
+}
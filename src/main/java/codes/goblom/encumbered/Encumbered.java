@@ -16,20 +16,27 @@
  */
 package codes.goblom.encumbered;
 
-import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
-import java.io.IOException;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
-import java.util.logging.Level;
+import java.util.concurrent.atomic.AtomicReference;
 import org.bukkit.Material;
+import org.bukkit.NamespacedKey;
 import org.bukkit.OfflinePlayer;
+import org.bukkit.block.BlockState;
+import org.bukkit.block.ShulkerBox;
+import org.bukkit.enchantments.Enchantment;
 import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.meta.BlockStateMeta;
 import org.bukkit.inventory.meta.BundleMeta;
 import org.bukkit.inventory.meta.ItemMeta;
+import org.bukkit.persistence.PersistentDataContainer;
+import org.bukkit.persistence.PersistentDataType;
 
 /**
  *
@@ -43,88 +50,352 @@ public class Encumbered {
     public static final float DEFAULT_FLY_SPEED = 0.1F;
     public static final float DEFAULT_WALK_SPEED = 0.2F;
     
-    protected static boolean accountAmount = true;
-    protected static double defaultMaxCarryWeight = 100.0;
-    protected static boolean canPickupIfExceedMaxCarryWeight = true;
-    protected static boolean weightedTooltip = true;
-    protected static boolean countBundle = true;
+    /**
+     * Weight of a single item stored in its PersistentDataContainer as a 
+     * {@link PersistentDataType#DOUBLE}. Replaces the material weight of the 
+     * item. Same as new NamespacedKey(plugin, "weight")
+     */
+    public static final NamespacedKey WEIGHT_KEY = NamespacedKey.fromString("encumbered:weight");
     
-    protected static final Map<Material, Double> MATERIAL_WEIGHTS = Maps.newHashMap();
-    protected static final List<EncumberedPlayer> ENCUMBERED_PLAYERS = Lists.newArrayList();
+    /**
+     * The current config. Replaced as a whole on reload, never modified
+     */
+    protected static final AtomicReference<EncumberedConfig> CONFIG = new AtomicReference(EncumberedConfig.DEFAULT);
+    protected static final PlayerRegistry PLAYERS = new PlayerRegistry();
+    protected static volatile CapacityProvider capacity = CapacityProvider.DEFAULT;
     
     private static final String WEIGHT_STR = "Weight: ";
     
+    /**
+     * Containers nested deeper than this only count their own material weight
+     */
+    private static final int MAX_CONTAINER_DEPTH = 3;
+    private static final Set<Material> SHULKER_BOXES = EnumSet.noneOf(Material.class);
+    protected static volatile ItemWeightCache itemCache = null;
+    protected static final Cache<ItemMeta, Double> CONTAINER_WEIGHTS = CacheBuilder.newBuilder().maximumSize(1024).recordStats().build();
+    
+    /**
+     * Rendered "Weight: " lines keyed by weight, so equal weights share one string
+     */
+    private static final Cache<Double, String> WEIGHT_LINES = CacheBuilder.newBuilder().maximumSize(512).build();
+    
+    static {
+        for (Material mat : Material.values()) {
+            if (mat.name().endsWith("SHULKER_BOX") && !mat.name().startsWith("LEGACY_")) {
+                SHULKER_BOXES.add(mat);
+            }
+        }
+    }
+    
     public static EncumberedPlayer getPlayer(OfflinePlayer player) {
         return getPlayer(player.getUniqueId());
     }
     
     public static EncumberedPlayer getPlayer(UUID id) {
-        return ENCUMBERED_PLAYERS.stream().filter((p) -> { return p.getUuid().equals(id); }).findFirst().orElseGet(() -> {
-            EncumberedPlayer player = new EncumberedPlayer(id);
-            ENCUMBERED_PLAYERS.add(player);
-            
-            return player;
-        });
+        return PLAYERS.getOrCreate(id);
+    }
+    
+    /**
+     * 
+     * @param id UUID of the player
+     * @return The EncumberedPlayer or null if the player is not online
+     */
+    public static EncumberedPlayer getPlayerIfPresent(UUID id) {
+        return PLAYERS.get(id);
+    }
+    
+    public static PlayerRegistry getRegistry() {
+        return PLAYERS;
+    }
+    
+    public static CapacityProvider getCapacityProvider() {
+        return capacity;
+    }
+    
+    public static EncumberedConfig getConfig() {
+        return CONFIG.get();
+    }
+    
+    /**
+     * Applies the hysteresis margins around the max carry weight. A player 
+     * becomes encumbered above max + Enter Margin and only stops being 
+     * encumbered below max - Leave Margin. With tiers, max is the lowest tier.
+     * 
+     * @param current The carried weight
+     * @param max The max carry weight
+     * @param wasEncumbered If the player is currently encumbered
+     * @return true if the player should be encumbered
+     */
+    public static boolean isEncumbered(double current, double max, boolean wasEncumbered) {
+        return getSpeedLevel(current, max, wasEncumbered ? 1 : 0) > 0;
+    }
+    
+    /**
+     * 
+     * @param current The carried weight
+     * @param max The max carry weight
+     * @param level The current speed level of the player
+     * @return The new speed level of the player. 0 when not encumbered
+     * @see SpeedCurve#getLevel(double, double, int)
+     */
+    public static int getSpeedLevel(double current, double max, int level) {
+        return CONFIG.get().getSpeedCurve().getLevel(current, max, level);
     }
     
     public static double getMaterialWeight(Material mat) {
-        if (mat.isAir() || !MATERIAL_WEIGHTS.containsKey(mat)) {
-            return 0.0;
-        }
-        
-        return MATERIAL_WEIGHTS.getOrDefault(mat, 0.0);
+        return CONFIG.get().getWeightTable().get(mat);
     }
     
     public static Map<Material, Double> getAllRecordedWeights() {
-        return new HashMap(MATERIAL_WEIGHTS);
+        return CONFIG.get().getWeightTable().toMap();
+    }
+    
+    public static WeightTable getWeightTable() {
+        return CONFIG.get().getWeightTable();
     }
     
     public static void setMaterialWeight(Material mat, double amount) {
         if (mat.isAir()) throw new UnsupportedOperationException(mat.name() + " is not a supported Material");
-        if (mat == Material.BUNDLE && Encumbered.countBundle) throw new UnsupportedOperationException("Will not add a BUNDLE weight. 'Count Bundle' is true.");
+        if (mat == Material.BUNDLE && CONFIG.get().isCountBundle()) throw new UnsupportedOperationException("Will not add a BUNDLE weight. 'Count Bundle' is true.");
+        
+        CONFIG.updateAndGet((config) -> config.withWeightTable(config.getWeightTable().with(mat, amount)));
+        invalidateCaches();
+        
+        // Ledgers still hold the old weight of every slot with this material
+        for (EncumberedPlayer ep : PLAYERS.getPlayers()) {
+            ep.markAllDirty();
+        }
         
-        MATERIAL_WEIGHTS.put(mat, amount);
         EncumberedPlugin.instance.weights.set(mat.name(), amount);
+        EncumberedPlugin.instance.weightsWriter.markDirty();
+    }
+    
+    /**
+     * Clears every cached weight. Must be called whenever the weight table changes.
+     */
+    protected static void invalidateCaches() {
+        CONTAINER_WEIGHTS.invalidateAll();
         
-        try {
-            EncumberedPlugin.instance.weights.save(EncumberedPlugin.instance.weightsFile);
-        } catch (IOException ex) {
-            EncumberedPlugin.instance.getLogger().log(Level.WARNING, "Unable to save weights.yml. Error: {0}", ex);
+        ItemWeightCache cache = itemCache;
+        if (cache != null) {
+            cache.invalidate();
         }
     }
     
+    /**
+     * 
+     * @return The item weight cache or null if it is disabled
+     */
+    public static ItemWeightCache getItemCache() {
+        return itemCache;
+    }
+    
     public static double calculateWeight(ItemStack stack) {
+        return calculateWeight(stack, 0);
+    }
+    
+    private static double calculateWeight(ItemStack stack, int depth) {
         if (stack == null) return 0.0;
         
-        if (stack.getType() == Material.BUNDLE && Encumbered.countBundle) {
-            double weight = 0.0;
+        if (!isMetaWeighted(stack)) {
+            return calculateWeight(stack.getType(), stack.getAmount());
+        }
+        
+        // Bukkit cannot hand out the meta without copying it, so a cache hit still pays for 
+        // the copy and for hashing it. That only beats weighing the meta for containers
+        ItemMeta meta = stack.getItemMeta();
+        ItemWeightCache cache = itemCache;
+        
+        if (cache != null && depth == 0 && isContainer(stack.getType())) {
+            return cache.get(stack, meta, () -> calculateMetaWeight(stack, meta, depth));
+        }
+        
+        return calculateMetaWeight(stack, meta, depth);
+    }
+    
+    /**
+     * Weight of a stack whose weight depends on its ItemMeta. That is its 
+     * own weight, see {@link #getItemWeight(Material, ItemMeta)}, plus 
+     * everything inside of it for bundles and shulker boxes.
+     */
+    private static double calculateMetaWeight(ItemStack stack, ItemMeta meta, int depth) {
+        double weight = getItemWeight(stack.getType(), meta);
+        
+        if (depth < MAX_CONTAINER_DEPTH && isContainer(stack.getType())) {
+            weight += calculateContentsWeight(meta, depth);
+        }
+        
+        if (CONFIG.get().isAccountAmount()) {
+            weight *= stack.getAmount();
+        }
+        
+        return weight;
+    }
+    
+    /**
+     * Weight of a single item. Its {@link #WEIGHT_KEY} if it has one, 
+     * otherwise its material weight, times the multiplier of every 
+     * enchantment on it.
+     * 
+     * @param mat The material of the item
+     * @param meta The ItemMeta of the item
+     * @return The weight of one item, not counting what is inside of it
+     */
+    public static double getItemWeight(Material mat, ItemMeta meta) {
+        EncumberedConfig config = CONFIG.get();
+        double weight = config.getWeightTable().get(mat);
+        
+        if (config.isCustomWeights()) {
+            PersistentDataContainer data = meta.getPersistentDataContainer();
             
-            BundleMeta meta = (BundleMeta) stack.getItemMeta();
-            if (meta == null || !meta.hasItems()) return weight;
+            if (data.has(WEIGHT_KEY, PersistentDataType.DOUBLE)) {
+                weight = data.get(WEIGHT_KEY, PersistentDataType.DOUBLE);
+            }
+        }
+        
+        Map<Enchantment, Double> multipliers = config.getEnchantmentMultipliers();
+        
+        if (!multipliers.isEmpty() && meta.hasEnchants()) {
+            for (Map.Entry<Enchantment, Integer> enchant : meta.getEnchants().entrySet()) {
+                Double multiplier = multipliers.get(enchant.getKey());
+                
+                if (multiplier != null) {
+                    weight *= Math.pow(multiplier, enchant.getValue());
+                }
+            }
+        }
+        
+        return weight;
+    }
+    
+    /**
+     * Weight of everything inside of a bundle or shulker box. Bundles have 
+     * no material weight of their own, see {@link WeightRules}.
+     * 
+     * The result is cached against the ItemMeta of the container. Its hash and 
+     * equality come from the already parsed meta, so an unchanged container is 
+     * never turned back into a BlockState or item list.
+     * 
+     * Reads the BlockState of shulker boxes, so must be called from the main thread.
+     */
+    private static double calculateContentsWeight(ItemMeta meta, int depth) {
+        Double contents = depth == 0 ? CONTAINER_WEIGHTS.getIfPresent(meta) : null;
+        
+        if (contents == null) {
+            contents = 0.0;
             
-            for (ItemStack item : meta.getItems()) {
-                weight = calculateWeight(item);
+            if (meta instanceof BundleMeta) {
+                BundleMeta bundle = (BundleMeta) meta;
+                
+                if (bundle.hasItems()) {
+                    for (ItemStack item : bundle.getItems()) {
+                        contents += calculateWeight(item, depth + 1);
+                    }
+                }
+            } else if (meta instanceof BlockStateMeta && ((BlockStateMeta) meta).hasBlockState()) {
+                BlockState state = ((BlockStateMeta) meta).getBlockState();
+                
+                if (state instanceof ShulkerBox) {
+                    for (ItemStack item : ((ShulkerBox) state).getInventory().getContents()) {
+                        contents += calculateWeight(item, depth + 1);
+                    }
+                }
             }
             
-            return weight;
-        } else {
-            double weight = getMaterialWeight(stack.getType());
-
-            if (accountAmount) {
-                weight *= stack.getAmount();
+            if (depth == 0) {
+                CONTAINER_WEIGHTS.put(meta, contents);
             }
+        }
+        
+        return contents;
+    }
+    
+    /**
+     * 
+     * @param mat The material to check
+     * @return true if items of this material are weighed by what they contain
+     */
+    public static boolean isContainer(Material mat) {
+        EncumberedConfig config = CONFIG.get();
+        
+        if (mat == Material.BUNDLE) return config.isCountBundle();
+        
+        return config.isCountShulkerBox() && SHULKER_BOXES.contains(mat);
+    }
+    
+    /**
+     * Weight of a plain stack, one that has nothing in its ItemMeta that 
+     * changes its weight.
+     * 
+     * @param mat The material of the stack
+     * @param amount The amount of items in the stack
+     * @return The weight of the stack
+     */
+    public static double calculateWeight(Material mat, int amount) {
+        EncumberedConfig config = CONFIG.get();
+        double weight = config.getWeightTable().get(mat);
+
+        if (config.isAccountAmount()) {
+            weight *= amount;
+        }
 
-            return weight;
+        return weight;
+    }
+    
+    /**
+     * Stacks without ItemMeta, most of them, are never weighed by their meta. 
+     * Their meta is not looked at at all.
+     * 
+     * Weight tooltips give nearly every stack lore, so having ItemMeta alone 
+     * does not mean much. Unless custom weights are on, only containers and 
+     * stacks with a weighted enchantment are weighed by their meta. The 
+     * enchantments are read from the stack, which does not copy its meta.
+     * 
+     * @param stack The stack to check
+     * @return true if the weight of the stack depends on its ItemMeta
+     */
+    public static boolean isMetaWeighted(ItemStack stack) {
+        if (!stack.hasItemMeta()) return false;
+        
+        EncumberedConfig config = CONFIG.get();
+        
+        if (config.isCustomWeights() || isContainer(stack.getType())) return true;
+        
+        Map<Enchantment, Double> multipliers = config.getEnchantmentMultipliers();
+        
+        if (multipliers.isEmpty()) return false;
+        
+        for (Enchantment enchant : stack.getEnchantments().keySet()) {
+            if (multipliers.containsKey(enchant)) return true;
         }
+        
+        return false;
     }
     
     public static ItemStack addWeightTooltip(ItemStack stack) {
-        if (!weightedTooltip) return stack;
+        if (!CONFIG.get().isWeightedTooltip()) return stack;
         
-        double weight = calculateWeight(stack);
+        applyWeightTooltip(stack);
+        
+        return stack;
+    }
+    
+    /**
+     * Writes the weight line into the lore of the stack, unless the lore 
+     * already shows the correct weight.
+     * 
+     * @param stack The stack to update in place
+     * @return true if the lore of the stack was changed
+     */
+    protected static boolean applyWeightTooltip(ItemStack stack) {
+        if (stack == null || stack.getType().isAir()) return false;
         
+        String rendered = renderWeightLine(calculateWeight(stack));
         ItemMeta meta = stack.getItemMeta();
-        List<String> lore = meta.getLore();
+        
+        if (meta == null) return false;
+        
+        List<String> lore = meta.hasLore() ? meta.getLore() : null;
         boolean added = false;
         
         if (lore != null) {
@@ -134,8 +405,10 @@ public class Encumbered {
                 if (line == null || line.isEmpty()) continue;
                 
                 if (line.startsWith(WEIGHT_STR)) {
+                    if (line.equals(rendered)) return false;
+                    
                     added = true;
-                    lore.set(i, WEIGHT_STR + weight);
+                    lore.set(i, rendered);
                     break;
                 }
             }
@@ -149,12 +422,23 @@ public class Encumbered {
         }
         
         if (!added) {
-            lore.add(WEIGHT_STR + weight);
+            lore.add(rendered);
         }
         
         meta.setLore(lore);
         stack.setItemMeta(meta);
         
-        return stack;
+        return true;
+    }
+    
+    private static String renderWeightLine(double weight) {
+        String line = WEIGHT_LINES.getIfPresent(weight);
+        
+        if (line == null) {
+            line = WEIGHT_STR + weight;
+            WEIGHT_LINES.put(weight, line);
+        }
+        
+        return line;
     }
 }
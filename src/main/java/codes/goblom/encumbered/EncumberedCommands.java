@@ -20,21 +20,40 @@ import codes.goblom.executor.CommandContext;
 import codes.goblom.executor.CommandInfo;
 import codes.goblom.executor.CommandListener;
 import codes.goblom.executor.Executor;
-import com.google.common.collect.Lists;
-import com.google.common.collect.Sets;
+import codes.goblom.executor.PrefixTrie;
+import com.google.common.cache.CacheStats;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.UUID;
 import net.md_5.bungee.api.ChatColor;
 import org.bukkit.Bukkit;
 import org.bukkit.Material;
 import org.bukkit.entity.Player;
+import org.bukkit.scheduler.BukkitRunnable;
 
 /**
  *
  * @author Bryan Larson
  */
-class EncumberedCommands implements CommandListener {    
+public class EncumberedCommands implements CommandListener {    
+    
+    private static final List<String> STORE_TYPES = Arrays.asList("yaml", "binary");
+    private static final double MEGABYTE = 1024 * 1024;
+    private static final int MAX_SUGGESTIONS = 64;
+    
+    private static final PrefixTrie MATERIALS = new PrefixTrie();
+    
+    static {
+        for (Material mat : Material.values()) {
+            if (!mat.isLegacy()) {
+                MATERIALS.add(mat.name());
+            }
+        }
+    }
     
     protected EncumberedCommands() { }
     
@@ -47,10 +66,21 @@ class EncumberedCommands implements CommandListener {
     public void reset(CommandContext context) {
         if (context.isTabExecutor()) return;
         
-        EncumberedPlugin.instance.saveResource("config.yml", true);
-        EncumberedPlugin.instance.saveResource("overrides.yml", true);
-        EncumberedPlugin.instance.saveResource("weights.yml", true);
-        context.message("Configs reset back to default values", "Please restart you server.");
+        EncumberedPlugin.instance.reset();
+        context.message("Configs reset back to default values", "Overrides take effect after a restart.");
+    }
+    
+    @CommandInfo(
+            name = "reload",
+            permission = Permissions.RELOAD,
+            description = "reloads config.yml and weights.yml"
+    )
+    public void reload(CommandContext context) {
+        if (context.isTabExecutor()) return;
+        
+        EncumberedConfig config = EncumberedPlugin.instance.reload();
+        context.message("Reloaded. " + config.getWeightTable().toMap().size() + " material weights loaded.", 
+                        "Override Store, Save Delay and Bypass Refresh Interval take effect after a restart.");
     }
     
     @CommandInfo(
@@ -66,7 +96,7 @@ class EncumberedCommands implements CommandListener {
                 context.message(ChatColor.RED + "Requires a [player]");
             }
             
-            Bukkit.getOnlinePlayers().forEach((p) -> context.suggest(p.getName()));
+            context.suggestAll(completePlayers(""));
             return;
         }
         
@@ -77,16 +107,14 @@ class EncumberedCommands implements CommandListener {
             if (playerName == null || playerName.isEmpty()) {
                 context.message(ChatColor.RED + "Requires a [player]");
                 
-                Bukkit.getOnlinePlayers().forEach((p) -> context.suggest(p.getName()));
+                context.suggestAll(completePlayers(""));
             } else {
-                List<String> names = Bukkit.getOnlinePlayers().stream().map(Player::getName).collect(Collectors.toList());
-//                List<String> names = Lists.transform(new ArrayList<>(Bukkit.getOnlinePlayers()), Player::getName);
-                List<String> matched = Executor.copyPartialMatches(names, playerName);
+                List<String> matched = completePlayers(playerName);
             
-                if (matched == null || matched.isEmpty()) {
+                if (matched.isEmpty()) {
                     context.message("Player name '" + playerName + "' is not online.");
                 } else {
-                    matched.forEach((s) -> context.suggest(s));
+                    context.suggestAll(matched);
                 }
             }
             
@@ -111,7 +139,7 @@ class EncumberedCommands implements CommandListener {
                 context.message(ChatColor.RED + "Requires a [material]");
             }
             
-            Lists.newArrayList(Material.values()).forEach((m) -> context.suggest(m.name()));
+            context.suggestAll(MATERIALS.complete("", MAX_SUGGESTIONS));
             return;
         }
         
@@ -121,15 +149,14 @@ class EncumberedCommands implements CommandListener {
         if (mat == null) {
             if (matName == null || matName.isEmpty()) {
                 context.message(ChatColor.RED + "Requires a [material]");
-                Lists.newArrayList(Material.values()).forEach((m) -> context.suggest(m.name()));
+                context.suggestAll(MATERIALS.complete("", MAX_SUGGESTIONS));
             } else {
-                List<String> names = Lists.transform(Lists.newArrayList(Material.values()), (m) -> m.name());
-                List<String> matched = Executor.copyPartialMatches(names, matName);
+                List<String> matched = MATERIALS.complete(matName, MAX_SUGGESTIONS);
                 
-                if (matched == null || matched.isEmpty()) {
+                if (matched.isEmpty()) {
                     context.message("Material '" + matName + " does not exist.");
                 } else {
-                    matched.forEach((s) -> context.suggest(s));
+                    context.suggestAll(matched);
                 }
             }
             
@@ -177,16 +204,12 @@ class EncumberedCommands implements CommandListener {
             usage = "[player] [weight]"
     )
     public void setCarry(CommandContext context) {
-        Set<String> playerNames = Sets.newHashSet();
-        Bukkit.getOnlinePlayers().forEach((p) -> playerNames.add(p.getName()));
-//        Lists.newArrayList(Bukkit.getOfflinePlayers())/*.stream().filter(!playerNames.contains(OfflinePlayer::getName))*/.forEach((op) -> playerNames.add(op.getName()));
-        
         if (!context.hasArg(0)) {
             if (!context.isTabExecutor()) {
                 context.message(ChatColor.RED + "Requires a [player]");
             }
             
-            playerNames.forEach((p) -> context.suggest(p));
+            context.suggestAll(completePlayers(""));
             return;
         }
         
@@ -197,14 +220,14 @@ class EncumberedCommands implements CommandListener {
             if (playerName == null || playerName.isEmpty()) {
                 context.message(ChatColor.RED + "Requires a [player]");
                 
-                Bukkit.getOnlinePlayers().forEach((p) -> context.suggest(p.getName()));
+                context.suggestAll(completePlayers(""));
             } else {
-                List<String> matched = Executor.copyPartialMatches(playerNames, playerName);
+                List<String> matched = completePlayers(playerName);
             
-                if (matched == null || matched.isEmpty()) {
+                if (matched.isEmpty()) {
                     context.message("Player name '" + playerName + "' is not online.");
                 } else {
-                    matched.forEach((s) -> context.suggest(s));
+                    context.suggestAll(matched);
                 }
             }
             
@@ -238,4 +261,226 @@ class EncumberedCommands implements CommandListener {
         Encumbered.getPlayer(player).setCustomMaxCarryWeight(weight);
         context.message("Set the Max Carry Weight of " + player.getName() + " to " + weight);
     }
+    
+    @CommandInfo(
+            name = "migrateoverrides",
+            alias = { "mo" },
+            description = "Copy all max carry weight overrides into another override store",
+            permission = Permissions.OVERRIDE_STORE,
+            usage = "[yaml|binary]",
+            async = true
+    )
+    public void migrateOverrides(CommandContext context) {
+        if (!context.hasArg(0)) {
+            if (!context.isTabExecutor()) {
+                context.message(ChatColor.RED + "Requires a target store [yaml|binary]");
+            }
+            
+            STORE_TYPES.forEach((s) -> context.suggest(s));
+            return;
+        }
+        
+        String target = context.getArg(0).toLowerCase();
+        
+        if (!STORE_TYPES.contains(target)) {
+            Executor.copyPartialMatches(STORE_TYPES, target).forEach((s) -> context.suggest(s));
+            
+            if (!context.isTabExecutor()) {
+                context.message(ChatColor.RED + target + " is not an override store. Use yaml or binary");
+            }
+            
+            return;
+        }
+        
+        if (context.isTabExecutor()) return;
+        
+        OverrideStore current = EncumberedPlugin.instance.overrideStore;
+        
+        if (current.getName().equals(target)) {
+            context.message("Already using the " + target + " override store.");
+            return;
+        }
+        
+        OverrideStore destination = EncumberedPlugin.instance.createOverrideStore(target, false);
+        
+        try {
+            destination.load();
+        } catch (IOException ex) {
+            context.message(ChatColor.RED + "Unable to open the " + target + " override store. " + ex.getMessage());
+            return;
+        }
+        
+        // Reads are safe from any thread, writes are not. The copy is made on the main thread
+        List<UUID> ids = new ArrayList(current.size());
+        List<Double> overrides = new ArrayList(current.size());
+        
+        current.forEach((id, weight) -> {
+            ids.add(id);
+            overrides.add(weight);
+        });
+        
+        context.message("Copying " + ids.size() + " overrides into the " + target + " override store...");
+        new OverrideCopy(context, destination, ids, overrides).runTaskTimer(EncumberedPlugin.instance, 1, 1);
+    }
+    
+    @CommandInfo(
+            name = "benchmarkoverrides",
+            alias = { "bo" },
+            description = "Measure load time and memory of each override store",
+            permission = Permissions.OVERRIDE_STORE,
+            async = true
+    )
+    public void benchmarkOverrides(CommandContext context) {
+        if (context.isTabExecutor()) return;
+        
+        for (String type : STORE_TYPES) {
+            OverrideStore store = EncumberedPlugin.instance.createOverrideStore(type, true);
+            
+            long heapBefore = usedHeap();
+            long rssBefore = residentSetSize();
+            long start = System.nanoTime();
+            
+            try {
+                store.load();
+            } catch (IOException ex) {
+                context.message(type + ": unable to load. " + ex.getMessage());
+                continue;
+            }
+            
+            long loadTime = System.nanoTime() - start;
+            long heap = usedHeap() - heapBefore;
+            long rss = residentSetSize() - rssBefore;
+            
+            context.message(String.format("%s: %d overrides loaded in %.2f ms. Heap ~%+.2f MB, RSS %s", 
+                    type, store.size(), loadTime / 1_000_000.0, heap / MEGABYTE, 
+                    rssBefore < 0 ? "n/a" : String.format("%+.2f MB", rss / MEGABYTE)));
+            
+            store.close();
+        }
+    }
+    
+    @CommandInfo(
+            name = "stats",
+            description = "Show latency and load statistics of the plugin",
+            permission = Permissions.STATS,
+            usage = "(reset)"
+    )
+    public void stats(CommandContext context) {
+        if (context.isTabExecutor()) {
+            context.suggest("reset");
+            return;
+        }
+        
+        if (context.hasArg(0)) {
+            if (!"reset".equalsIgnoreCase(context.getArg(0))) {
+                context.message(ChatColor.RED + context.getArg(0) + " is not an option. Use reset");
+                return;
+            }
+            
+            PluginStats.reset();
+            context.message("Stats reset. Cache hit rates are kept since the plugin was enabled.");
+            return;
+        }
+        
+        if (!PluginStats.enabled) {
+            context.message(ChatColor.RED + "Stats are disabled. Set 'Collect Stats: true' in config.yml");
+        }
+        
+        PlayerRegistry registry = Encumbered.getRegistry();
+        context.message(String.format("Players: %d tracked, %d peak, %d created, %d evicted", 
+                registry.size(), registry.getPeakSize(), registry.getTotalCreated(), registry.getTotalEvicted()));
+        
+        EncumbranceSweep sweep = EncumberedPlugin.instance.sweep;
+        context.message(String.format("Sweep: %.1f players per tick (max %d), %d backlog, last pass %d ticks, %d ticks behind", 
+                PluginStats.getEvaluatedPerTick(), PluginStats.getMaxEvaluatedPerTick(), 
+                sweep.getBacklog(), sweep.getLastPassTicks(), sweep.getTicksBehind()));
+        
+        ItemWeightCache itemCache = Encumbered.getItemCache();
+        CacheStats containers = Encumbered.CONTAINER_WEIGHTS.stats();
+        context.message(String.format("Caches: item weights %s, container weights %.1f%% hits (%d entries)", 
+                itemCache == null ? "disabled" : String.format("%.1f%% hits (%d entries)", itemCache.getHitRate() * 100, itemCache.size()), 
+                containers.hitRate() * 100, Encumbered.CONTAINER_WEIGHTS.size()));
+        
+        WriteBehindFile weights = EncumberedPlugin.instance.weightsWriter;
+        OverrideStore overrides = EncumberedPlugin.instance.overrideStore;
+        context.message(String.format("Saves: weights.yml %d pending, last write %.2fms (%d writes), %s overrides %d pending, last write %.2fms", 
+                weights.getPendingChanges(), weights.getLastFlushMillis(), weights.getTotalFlushes(), 
+                overrides.getName(), overrides.getPendingWrites(), overrides.getLastFlushLatency() / 1_000_000.0));
+        
+        for (LatencyHistogram histogram : PluginStats.HISTOGRAMS) {
+            context.message(histogram.summary());
+        }
+    }
+    
+    /**
+     * Copies overrides into a store on the main thread, a batch per tick. 
+     * The store is closed off the main thread once everything is copied.
+     */
+    private static class OverrideCopy extends BukkitRunnable {
+        
+        private static final int BATCH = 1000;
+        
+        private final CommandContext context;
+        private final OverrideStore destination;
+        private final List<UUID> ids;
+        private final List<Double> overrides;
+        private int next = 0;
+        
+        OverrideCopy(CommandContext context, OverrideStore destination, List<UUID> ids, List<Double> overrides) {
+            this.context = context;
+            this.destination = destination;
+            this.ids = ids;
+            this.overrides = overrides;
+        }
+        
+        @Override
+        public void run() {
+            int end = Math.min(ids.size(), next + BATCH);
+            
+            for (; next < end; next++) {
+                destination.set(ids.get(next), overrides.get(next));
+            }
+            
+            if (next < ids.size()) return;
+            
+            cancel();
+            
+            Bukkit.getScheduler().runTaskAsynchronously(EncumberedPlugin.instance, () -> {
+                destination.close();
+                
+                context.message("Copied " + ids.size() + " overrides into the " + destination.getName() + " override store.", 
+                                "Set 'Override Store: " + destination.getName() + "' in config.yml and restart your server to use it.");
+            });
+        }
+    }
+    
+    private static List<String> completePlayers(String prefix) {
+        return EncumberedPlugin.instance.onlineNames.complete(prefix, MAX_SUGGESTIONS);
+    }
+    
+    /**
+     * Includes garbage that was not collected yet, forcing a GC here would 
+     * stall the server. Heap deltas are only approximate.
+     */
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+    
+    /**
+     * 
+     * @return Resident set size in bytes, -1 if not available (not Linux)
+     */
+    private static long residentSetSize() {
+        try {
+            for (String line : Files.readAllLines(Paths.get("/proc/self/status"))) {
+                if (line.startsWith("VmRSS:")) {
+                    return Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+                }
+            }
+        } catch (IOException | NumberFormatException e) { }
+        
+        return -1;
+    }
 }
@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2020 Bryan Larson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package codes.goblom.encumbered;
+
+import com.google.common.collect.ImmutableMap;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import lombok.Getter;
+import org.bukkit.NamespacedKey;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.MemoryConfiguration;
+import org.bukkit.enchantments.Enchantment;
+
+/**
+ * Immutable snapshot of config.yml and weights.yml. Parsed once, published 
+ * through {@link Encumbered#getConfig()} and replaced as a whole on reload, so 
+ * hot paths never touch the Bukkit configuration.
+ * 
+ * @author Bryan Larson
+ */
+@Getter
+public final class EncumberedConfig {
+    
+    private static final String SHORT_PREFIX = "[E]";
+    private static final String PREFIX = "[Encumbered]";
+    
+    /**
+     * Every option at its default value and no material weights
+     */
+    public static final EncumberedConfig DEFAULT = load(new MemoryConfiguration(), new MemoryConfiguration(), Logger.getGlobal());
+    
+    private final double defaultMaxCarryWeight;
+    private final boolean accountAmount;
+    private final boolean canPickupIfExceedMaxCarryWeight;
+    private final boolean weightedTooltip;
+    private final boolean countBundle;
+    private final boolean countShulkerBox;
+    
+    /**
+     * Hysteresis around the max carry weight, as a fraction of it
+     */
+    private final double enterMargin;
+    private final double leaveMargin;
+    
+    /**
+     * In milliseconds
+     */
+    private final long ledgerRescanInterval;
+    
+    /**
+     * Encumbered speeds by load
+     */
+    private final SpeedCurve speedCurve;
+    
+    /**
+     * Message prefix, including the trailing space
+     */
+    private final String prefix;
+    
+    /**
+     * In minutes
+     */
+    private final int messageInterval;
+    private final boolean itemCacheEnabled;
+    private final long itemCacheSize;
+    private final int sweepInterval;
+    private final long sweepBudget;
+    private final boolean collectStats;
+    private final boolean debug;
+    
+    private final WeightTable weightTable;
+    
+    /**
+     * If the {@link Encumbered#WEIGHT_KEY} of an item replaces its material weight. 
+     * Off by default, when on every stack with ItemMeta has its meta copied.
+     */
+    private final boolean customWeights;
+    
+    /**
+     * Weight multiplier per level of each enchantment
+     */
+    private final Map<Enchantment, Double> enchantmentMultipliers;
+    
+    private EncumberedConfig(ConfigurationSection config, WeightTable weightTable, Map<Enchantment, Double> enchantmentMultipliers, SpeedCurve speedCurve) {
+        this.defaultMaxCarryWeight = config.getDouble("Default Max Carry Weight", 100.0);
+        this.accountAmount = config.getBoolean("Account for Amount", true);
+        this.canPickupIfExceedMaxCarryWeight = config.getBoolean("Can Pickup Item if Exceed Max Carry", true);
+        this.weightedTooltip = config.getBoolean("Show Weight in Tooltip", true);
+        this.countBundle = config.getBoolean("Count Bundle", true);
+        this.countShulkerBox = config.getBoolean("Count Shulker Box", true);
+        this.enterMargin = config.getDouble("Over Encumbered.Enter Margin", 0) / 100;
+        this.leaveMargin = config.getDouble("Over Encumbered.Leave Margin", 5) / 100;
+        this.ledgerRescanInterval = TimeUnit.SECONDS.toMillis(config.getLong("Ledger Rescan Interval", 30));
+        this.speedCurve = speedCurve;
+        this.prefix = (config.getBoolean("Short Prefix", false) ? SHORT_PREFIX : PREFIX) + " ";
+        this.messageInterval = config.getInt("Message Interval", 3);
+        this.itemCacheEnabled = config.getBoolean("Item Weight Cache.Enabled", true);
+        this.itemCacheSize = config.getLong("Item Weight Cache.Size", 4096);
+        this.sweepInterval = Math.max(1, config.getInt("Sweep.Interval", 5));
+        this.sweepBudget = Math.max(0, config.getLong("Sweep.Tick Budget", 500));
+        this.collectStats = config.getBoolean("Collect Stats", true);
+        this.debug = config.getBoolean("Debug", false);
+        this.weightTable = weightTable;
+        this.customWeights = config.getBoolean("Item Weights.Custom Weight", false);
+        this.enchantmentMultipliers = enchantmentMultipliers;
+    }
+    
+    private EncumberedConfig(EncumberedConfig copy, WeightTable weightTable) {
+        this.defaultMaxCarryWeight = copy.defaultMaxCarryWeight;
+        this.accountAmount = copy.accountAmount;
+        this.canPickupIfExceedMaxCarryWeight = copy.canPickupIfExceedMaxCarryWeight;
+        this.weightedTooltip = copy.weightedTooltip;
+        this.countBundle = copy.countBundle;
+        this.countShulkerBox = copy.countShulkerBox;
+        this.enterMargin = copy.enterMargin;
+        this.leaveMargin = copy.leaveMargin;
+        this.ledgerRescanInterval = copy.ledgerRescanInterval;
+        this.speedCurve = copy.speedCurve;
+        this.prefix = copy.prefix;
+        this.messageInterval = copy.messageInterval;
+        this.itemCacheEnabled = copy.itemCacheEnabled;
+        this.itemCacheSize = copy.itemCacheSize;
+        this.sweepInterval = copy.sweepInterval;
+        this.sweepBudget = copy.sweepBudget;
+        this.collectStats = copy.collectStats;
+        this.debug = copy.debug;
+        this.weightTable = weightTable;
+        this.customWeights = copy.customWeights;
+        this.enchantmentMultipliers = copy.enchantmentMultipliers;
+    }
+    
+    /**
+     * 
+     * @param config The contents of config.yml
+     * @param weights The contents of weights.yml
+     * @param logger Where skipped weight rules are reported
+     * @return The parsed snapshot
+     */
+    public static EncumberedConfig load(ConfigurationSection config, ConfigurationSection weights, Logger logger) {
+        boolean countBundle = config.getBoolean("Count Bundle", true);
+        
+        ConfigurationSection enchantments = config.getConfigurationSection("Item Weights.Enchantments");
+        SpeedCurve speedCurve = SpeedCurve.load(config, 
+                config.getDouble("Over Encumbered.Enter Margin", 0) / 100, 
+                config.getDouble("Over Encumbered.Leave Margin", 5) / 100, logger);
+        
+        return new EncumberedConfig(config, WeightRules.compile(weights, countBundle, logger), 
+                enchantments == null ? ImmutableMap.of() : parseEnchantments(enchantments, logger), speedCurve);
+    }
+    
+    private static Map<Enchantment, Double> parseEnchantments(ConfigurationSection section, Logger logger) {
+        Map<Enchantment, Double> multipliers = new HashMap();
+        
+        for (String name : section.getKeys(false)) {
+            NamespacedKey key = NamespacedKey.fromString(name.toLowerCase(Locale.ROOT));
+            Enchantment enchantment = key == null ? null : Enchantment.getByKey(key);
+            
+            if (enchantment == null) {
+                logger.warning("Enchantment '" + name + "' doesn't seem to exist... Skipping...");
+                continue;
+            }
+            
+            multipliers.put(enchantment, section.getDouble(name));
+        }
+        
+        return ImmutableMap.copyOf(multipliers);
+    }
+    
+    /**
+     * 
+     * @param weightTable The new weight table
+     * @return A copy of this snapshot using the weight table
+     */
+    public EncumberedConfig withWeightTable(WeightTable weightTable) {
+        return new EncumberedConfig(this, weightTable);
+    }
+    
+    /**
+     * 
+     * @param other Another snapshot
+     * @return true if both snapshots give every item the same weight
+     */
+    public boolean weighsLike(EncumberedConfig other) {
+        return accountAmount == other.accountAmount 
+            && countBundle == other.countBundle 
+            && countShulkerBox == other.countShulkerBox 
+            && customWeights == other.customWeights 
+            && enchantmentMultipliers.equals(other.enchantmentMultipliers) 
+            && weightTable.equals(other.weightTable);
+    }
+}
@@ -16,9 +16,9 @@
  */
 package codes.goblom.encumbered;
 
-import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.UUID;
-import java.util.logging.Level;
 import lombok.Getter;
 import org.bukkit.Bukkit;
 import org.bukkit.GameMode;
@@ -38,23 +38,104 @@ public class EncumberedPlayer {
     @Getter
     private double maxCarryWeight;
     
+    /**
+     * Set while the entry was built during login and the player has not joined yet
+     */
+    @Getter
+    private volatile boolean preloaded = false;
+    
+    @Getter
+    private final long createdAt = System.currentTimeMillis();
+    
+    /**
+     * Cached result of {@link #canBypass()}, null until it is computed
+     */
+    private volatile Boolean bypass = null;
+    
+    /**
+     * Weight ledger. One entry per slot of {@link PlayerInventory#getContents()}
+     * (storage, armor and off hand) and the running total of those entries.
+     */
+    private double[] slotWeights = new double[0];
+    private final BitSet dirtySlots = new BitSet();
+    
+    /**
+     * When each slot was last marked dirty or re-weighed on the main thread, 
+     * from a counter that also advances for every snapshot capture. Lets 
+     * {@link #applyWeights(int[], double[], long)} drop snapshot weights 
+     * that are older than the ledger.
+     */
+    private long[] slotStamps = new long[0];
+    private long stamp = 0;
+    private boolean fullRescan = true;
+    private long lastRescan = 0;
+    
+    @Getter
+    private double carriedWeight = 0;
+    
+    @Getter
+    private EncumbranceState state = EncumbranceState.NORMAL;
+    
+    /**
+     * Level of the {@link SpeedCurve} whose speeds this player has. 0 when not encumbered
+     */
+    @Getter
+    private int speedLevel = 0;
+    
+    /**
+     * Sweep bookkeeping. queued is true while this player waits in the dirty 
+     * queue of the {@link EncumbranceSweep}, evaluating while a snapshot of 
+     * this player is being weighed.
+     */
+    private boolean queued = false;
+    boolean evaluating = false;
+    
     protected EncumberedPlayer(UUID id) {
         this.uuid = id;
         
-        this.maxCarryWeight = EncumberedPlugin.instance.overrides.getDouble(uuid.toString(), Encumbered.defaultMaxCarryWeight);
+        this.maxCarryWeight = Encumbered.capacity.getMaxCarryWeight(uuid);
     }
     
     public void setCustomMaxCarryWeight(double amount) {
         this.maxCarryWeight = amount;
+        queueEvaluation();
+        
+        Encumbered.capacity.setMaxCarryWeight(uuid, amount);
+    }
+    
+    /**
+     * Re-reads the max carry weight from the capacity provider. Used when a
+     * reload changed the default max carry weight.
+     */
+    protected void refreshMaxCarryWeight() {
+        double max = Encumbered.capacity.getMaxCarryWeight(uuid);
         
-        EncumberedPlugin.instance.overrides.set(uuid.toString(), amount);
-        try {
-            EncumberedPlugin.instance.overrides.save(EncumberedPlugin.instance.overridesFile);
-        } catch (IOException ex) {
-            EncumberedPlugin.instance.getLogger().log(Level.WARNING, "Unable to save overrides.yml. Error: {0}", ex);
+        if (max != maxCarryWeight) {
+            this.maxCarryWeight = max;
+            queueEvaluation();
         }
     }
     
+    protected void setPreloaded(boolean preloaded) {
+        this.preloaded = preloaded;
+    }
+    
+    protected void setState(EncumbranceState state) {
+        this.state = state;
+    }
+    
+    protected void setSpeedLevel(int speedLevel) {
+        this.speedLevel = speedLevel;
+    }
+    
+    /**
+     * 
+     * @return true if the last evaluation found this player over encumbered
+     */
+    public boolean isEncumbered() {
+        return state.isEncumbered();
+    }
+    
     private boolean isOnline() {
         return getPlayer() != null;
     }
@@ -64,31 +145,211 @@ public class EncumberedPlayer {
     }
     
     /**
+     * Marks a single inventory slot as changed. The slot is re-weighed the next 
+     * time the ledger is synced.
      * 
-     * @return The weight the player is holding; -1 if player is offline
+     * @param slot Slot index as used by {@link PlayerInventory#getItem(int)}
      */
-    public double calculateCarriedWeight() {
-//        if (op instanceof Player) {
-        if (isOnline()) {
-            Player player = getPlayer();
-            double current = 0;
+    protected synchronized void markSlotDirty(int slot) {
+        if (slot < 0) return;
+        
+        dirtySlots.set(slot);
+        touch(slot);
+        queueEvaluation();
+    }
+    
+    /**
+     * Marks the whole inventory as changed. Used when we cannot tell which slots 
+     * an action touched (death, respawn, shift clicks, pickups).
+     */
+    protected synchronized void markAllDirty() {
+        this.fullRescan = true;
+        Arrays.fill(slotStamps, ++stamp);
+        queueEvaluation();
+    }
+    
+    /**
+     * Asks the sweep to evaluate this player ahead of the players that did not change.
+     */
+    protected void queueEvaluation() {
+        EncumberedPlugin plugin = EncumberedPlugin.instance;
+        
+        queueEvaluation(plugin == null ? null : plugin.sweep);
+    }
+    
+    /**
+     * 
+     * @param sweep The sweep to queue with, nothing is queued when null
+     */
+    protected synchronized void queueEvaluation(EncumbranceSweep sweep) {
+        if (queued || sweep == null) return;
+        
+        this.queued = true;
+        sweep.queue(this);
+    }
+    
+    /**
+     * Called by the sweep when this player is taken from the dirty queue
+     */
+    protected synchronized void dequeued() {
+        this.queued = false;
+    }
+    
+    /**
+     * Applies all pending slot changes to the ledger. Falls back to a full 
+     * rescan when requested or when the consistency check interval has passed.
+     * 
+     * @param inv The inventory of this player
+     * @return The updated carried weight
+     */
+    protected synchronized double syncLedger(InventorySource inv) {
+        if (fullRescan || slotWeights.length != inv.getSize() || System.currentTimeMillis() - lastRescan >= Encumbered.getConfig().getLedgerRescanInterval()) {
+            return rescan(inv);
+        }
+        
+        for (int slot = dirtySlots.nextSetBit(0); slot >= 0; slot = dirtySlots.nextSetBit(slot + 1)) {
+            if (slot >= slotWeights.length) continue;
             
-            PlayerInventory inv = player.getInventory();
+            double weight = Encumbered.calculateWeight(inv.getItem(slot));
             
-            // Armor
-            for (ItemStack armor : inv.getArmorContents()) {
-                current += Encumbered.calculateWeight(armor);
+            carriedWeight += weight - slotWeights[slot];
+            slotWeights[slot] = weight;
+            touch(slot);
+        }
+        
+        dirtySlots.clear();
+        return carriedWeight;
+    }
+    
+    /**
+     * Takes the slots that need to be re-weighed and clears them. When a full 
+     * rescan is due every slot is returned.
+     * 
+     * @param size The size of the inventory of this player
+     * @return Slot indexes to re-weigh
+     */
+    protected synchronized int[] takePendingSlots(int size) {
+        if (fullRescan || slotWeights.length != size || System.currentTimeMillis() - lastRescan >= Encumbered.getConfig().getLedgerRescanInterval()) {
+            if (slotWeights.length != size) {
+                resize(size);
             }
             
-            // Contents
-            for (ItemStack item : inv.getContents()) {
-                current += Encumbered.calculateWeight(item);
+            this.fullRescan = false;
+            this.lastRescan = System.currentTimeMillis();
+            dirtySlots.clear();
+            
+            int[] all = new int[size];
+            for (int i = 0; i < size; i++) {
+                all[i] = i;
             }
             
-            return current;
+            return all;
+        }
+        
+        int[] slots = dirtySlots.stream().filter((slot) -> slot < size).toArray();
+        dirtySlots.clear();
+        
+        return slots;
+    }
+    
+    protected synchronized double[] copyLedger() {
+        return slotWeights.clone();
+    }
+    
+    /**
+     * Called when a snapshot of the ledger is captured
+     * 
+     * @return The stamp to hand back to {@link #applyWeights(int[], double[], long)}
+     */
+    protected synchronized long stampCapture() {
+        return ++stamp;
+    }
+    
+    private void touch(int slot) {
+        if (slot < slotStamps.length) {
+            slotStamps[slot] = ++stamp;
+        }
+    }
+    
+    private void resize(int size) {
+        this.slotWeights = new double[size];
+        this.slotStamps = new long[size];
+        
+        // Every slot changed meaning, nothing captured before this may be applied
+        Arrays.fill(slotStamps, ++stamp);
+    }
+    
+    /**
+     * Writes weights computed from a snapshot back into the ledger. Slots that 
+     * were marked dirty or re-weighed since the snapshot was captured are left 
+     * alone, the ledger already has newer weights for them or will re-weigh 
+     * them on the next sync.
+     * 
+     * @param slots Slot indexes that were weighed
+     * @param weights Weight of each slot
+     * @param captured The {@link #stampCapture()} of the snapshot
+     */
+    protected synchronized void applyWeights(int[] slots, double[] weights, long captured) {
+        for (int i = 0; i < slots.length; i++) {
+            int slot = slots[i];
+            
+            if (slot >= slotWeights.length || slotStamps[slot] > captured || dirtySlots.get(slot)) continue;
+            
+            slotWeights[slot] = weights[i];
         }
         
-        return -1; //Player is offline.
+        double total = 0;
+        for (double weight : slotWeights) {
+            total += weight;
+        }
+        
+        this.carriedWeight = total;
+    }
+    
+    /**
+     * Re-weighs every slot in a single pass. {@link PlayerInventory#getContents()} 
+     * already contains the armor and off hand slots, so nothing is counted twice.
+     * 
+     * @param inv The inventory of this player
+     * @return The updated carried weight
+     */
+    protected synchronized double rescan(InventorySource inv) {
+        ItemStack[] contents = inv.getContents();
+        
+        if (slotWeights.length != contents.length) {
+            resize(contents.length);
+        }
+        
+        double total = 0;
+        
+        for (int i = 0; i < contents.length; i++) {
+            double weight = Encumbered.calculateWeight(contents[i]);
+            
+            slotWeights[i] = weight;
+            touch(i);
+            total += weight;
+        }
+        
+        this.carriedWeight = total;
+        this.fullRescan = false;
+        this.lastRescan = System.currentTimeMillis();
+        dirtySlots.clear();
+        
+        return total;
+    }
+    
+    /**
+     * 
+     * @return The weight the player is holding; -1 if player is offline
+     */
+    public double calculateCarriedWeight() {
+        Player player = getPlayer();
+        
+        if (player == null) {
+            return -1; //Player is offline.
+        }
+        
+        return syncLedger(InventorySource.of(player.getInventory()));
     }
     
     /**
@@ -99,7 +360,7 @@ public class EncumberedPlayer {
     public boolean canCarry(ItemStack stack) {
         if (!isOnline()) return false; //Player is offline
         if (canBypass()) return true; //Player can carry everything
-        if (Encumbered.canPickupIfExceedMaxCarryWeight) return true;
+        if (Encumbered.getConfig().isCanPickupIfExceedMaxCarryWeight()) return true;
         
         double current = calculateCarriedWeight();
         double max = getMaxCarryWeight();
@@ -118,13 +379,40 @@ public class EncumberedPlayer {
      * @return True of player has encumbered.bypass or is in CREATIVE. false if player is offline or does not have requirements
      */
     public boolean canBypass() {
-        if (isOnline()) {
-            return getPlayer().getGameMode() == GameMode.CREATIVE || 
-                   getPlayer().getGameMode() == GameMode.SPECTATOR|| 
-                   getPlayer().hasPermission(Permissions.BYPASS);
+        Boolean cached = bypass;
+        
+        if (cached == null) {
+            Player player = getPlayer();
+            
+            if (player == null) return false;
+            
+            cached = refreshBypass(player, player.getGameMode());
         }
         
-        return false;
+        return cached;
+    }
+    
+    /**
+     * Recomputes the cached bypass decision.
+     * 
+     * @param player The online player
+     * @param mode The game mode to decide with, the new one during a PlayerGameModeChangeEvent
+     * @return The new bypass decision
+     */
+    protected boolean refreshBypass(Player player, GameMode mode) {
+        boolean result = mode == GameMode.CREATIVE || 
+                         mode == GameMode.SPECTATOR || 
+                         player.hasPermission(Permissions.BYPASS);
+        
+        this.bypass = result;
+        return result;
+    }
+    
+    /**
+     * Drops the cached bypass decision, the next {@link #canBypass()} recomputes it.
+     */
+    protected void invalidateBypass() {
+        this.bypass = null;
     }
     
 }
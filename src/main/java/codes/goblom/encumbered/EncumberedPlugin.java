@@ -16,23 +16,24 @@
  */
 package codes.goblom.encumbered;
 
-import codes.goblom.encumbered.events.EncumberedSpeedChangeEvent;
 import codes.goblom.executor.CommandContext;
 import codes.goblom.executor.CommandInfo;
 import codes.goblom.executor.Executor;
+import codes.goblom.executor.PrefixTrie;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.RemovalNotification;
 import com.google.common.collect.Lists;
 import java.io.File;
-import java.util.Arrays;
-import java.util.Collection;
-import java.util.List;
+import java.io.IOException;
+import java.util.EnumSet;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 import org.bukkit.Bukkit;
-import org.bukkit.Location;
 import org.bukkit.Material;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
 import org.bukkit.command.CommandSender;
 import org.bukkit.command.PluginCommand;
 import org.bukkit.configuration.file.FileConfiguration;
@@ -42,8 +43,11 @@ import org.bukkit.event.EventHandler;
 import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
 import org.bukkit.event.entity.EntityPickupItemEvent;
-import org.bukkit.event.inventory.InventoryDragEvent;
-import org.bukkit.event.inventory.InventoryOpenEvent;
+import org.bukkit.event.player.AsyncPlayerPreLoginEvent;
+import org.bukkit.event.player.PlayerChangedWorldEvent;
+import org.bukkit.event.player.PlayerGameModeChangeEvent;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerLoginEvent;
 import org.bukkit.event.player.PlayerMoveEvent;
 import org.bukkit.event.player.PlayerQuitEvent;
 import org.bukkit.event.player.PlayerToggleSprintEvent;
@@ -55,24 +59,30 @@ import org.bukkit.plugin.java.JavaPlugin;
  *
  * @author Bryan Larson
  */
-public class EncumberedPlugin extends JavaPlugin implements Listener, Runnable {
-    private static final List<Material> CLIMBABLE_BLOCKS = Arrays.asList(Material.WATER, Material.LADDER, Material.VINE);
+public class EncumberedPlugin extends JavaPlugin implements Listener {
+    private static final Set<Material> CLIMBABLE_BLOCKS = EnumSet.of(Material.WATER, Material.LADDER, Material.VINE);
     
     protected static EncumberedPlugin instance;
     protected static boolean debug = false;
     
-    private static final int MESSAGE_INTERVAL = 3;
+    private static final long SAVE_DELAY = 2;
+    private static final long PRELOAD_TIMEOUT = TimeUnit.MINUTES.toMillis(1);
+    private static final long BYPASS_REFRESH = 30;
     
-    private static final String SHORT_PREFIX = "[E]";
-    private static final String PREFIX = "[Encumbered]";
-    
-    private Executor exec;
-    private Cache<UUID, Long> messageQueue;
+    protected Executor exec;
+    protected Cache<UUID, Long> messageQueue;
+    protected EncumbranceSweep sweep;
     
     protected File weightsFile;
     protected File overridesFile;
     protected FileConfiguration weights;
-    protected FileConfiguration overrides;
+    protected WriteBehindFile weightsWriter;
+    protected OverrideStore overrideStore;
+    
+    /**
+     * Names of online players for tab completion
+     */
+    protected final PrefixTrie onlineNames = new PrefixTrie();
     
     @Override
     public void onLoad() {        
@@ -90,60 +100,32 @@ public class EncumberedPlugin extends JavaPlugin implements Listener, Runnable {
         if (!overridesFile.exists()) saveResource("overrides.yml", true);
         
         this.weights = YamlConfiguration.loadConfiguration(weightsFile);
-        this.overrides = YamlConfiguration.loadConfiguration(overridesFile);
+        this.weightsWriter = new WriteBehindFile(this, weights, weightsFile, getSaveDelay());
         
-        debug = getConfig().getBoolean("Debug", debug);
-        
-        int messageInterval = getConfig().getInt("Message Interval", MESSAGE_INTERVAL);
-        messageQueue = CacheBuilder.newBuilder()
-                .expireAfterWrite(messageInterval, TimeUnit.MINUTES)
-                .removalListener((RemovalNotification<UUID, Long> notif) -> {
-                    UUID id = notif.getKey();
-                    
-                    EncumberedPlayer ep = Encumbered.getPlayer(id);
-                    double current = ep.calculateCarriedWeight();
-                    double max = ep.getMaxCarryWeight();
-                    
-                    if (ep.canBypass() || current < max) {
-                        Player player = Bukkit.getPlayer(id);
-                        
-                        if (player == null) return;
-                        
-                        player.setWalkSpeed(Encumbered.DEFAULT_WALK_SPEED);
-                        player.setFlySpeed(Encumbered.DEFAULT_FLY_SPEED);
-                    }
-                })
-                .build();
-        
-        Encumbered.accountAmount = getConfig().getBoolean("Account for Amount", Encumbered.accountAmount);
-        Encumbered.defaultMaxCarryWeight = getConfig().getDouble("Default Max Carry Weight", Encumbered.defaultMaxCarryWeight);
-        Encumbered.canPickupIfExceedMaxCarryWeight = getConfig().getBoolean("Can Pickup Item if Exceed Max Carry", Encumbered.canPickupIfExceedMaxCarryWeight);
-        Encumbered.weightedTooltip = getConfig().getBoolean("Show Weight in Tooltip", Encumbered.weightedTooltip);
-        Encumbered.countBundle = getConfig().getBoolean("Count Bundle", Encumbered.countBundle);
-        
-        for (String matName : weights.getKeys(false)) {
-            Material mat = Material.matchMaterial(matName);
-            double weight = weights.getDouble(matName);
+        this.overrideStore = createOverrideStore(getConfig().getString("Override Store", "yaml"), false);
+        try {
+            overrideStore.load();
+        } catch (IOException ex) {
+            getLogger().log(Level.SEVERE, "Unable to load " + overrideStore.getName() + " override store. Falling back to overrides.yml", ex);
             
-            if (mat == null) {
-                getLogger().warning("Material '" + matName + "' doesn't seem to exist... Skipping...");
-                continue;
-            }
-            
-            if (mat.isAir()) {
-                getLogger().warning("Found AIR type material in Material Weights... Skipping...");
-                continue;
-            }
-            
-            if (mat == Material.BUNDLE && Encumbered.countBundle) {
-                getLogger().warning("Found BUNDLE material. You also have 'Count Bundle' as true. Skipping...");
-                continue;
-            }
-            
-            Encumbered.MATERIAL_WEIGHTS.put(mat, weight);
+            YamlOverrideStore fallback = new YamlOverrideStore(this, overridesFile, getSaveDelay());
+            fallback.load();
+            this.overrideStore = fallback;
         }
         
+        Encumbered.capacity = CapacityProvider.of(overrideStore);
+        
+        EncumberedConfig config = EncumberedConfig.load(getConfig(), weights, getLogger());
+        Encumbered.CONFIG.set(config);
+        applyConfig(null, config);
+        
+        Bukkit.getOnlinePlayers().forEach((player) -> { // Players already online during a reload
+            Encumbered.getPlayer(player);
+            onlineNames.add(player.getName());
+        });
         Bukkit.getPluginManager().registerEvents(this, this);
+        Bukkit.getPluginManager().registerEvents(new InventoryLedgerListener(), this);
+        Bukkit.getPluginManager().registerEvents(new TooltipRenderer(this), this);
         
         this.exec = new Executor(this) {
             @Override
@@ -183,9 +165,7 @@ public class EncumberedPlugin extends JavaPlugin implements Listener, Runnable {
 
             @Override
             public void sendMessage(CommandSender sender, String message) {
-                boolean shortPrefix = EncumberedPlugin.instance.getConfig().getBoolean("Short Prefix", false);
-
-                sender.sendMessage((shortPrefix ? SHORT_PREFIX : PREFIX) + " " + message);
+                sender.sendMessage(Encumbered.getConfig().getPrefix() + message);
             }
         };
         
@@ -196,76 +176,151 @@ public class EncumberedPlugin extends JavaPlugin implements Listener, Runnable {
                       cmd.setExecutor(exec);
                       cmd.setTabCompleter(exec);
                       
-        Bukkit.getScheduler().runTaskTimerAsynchronously(this, this, 1, 5); // Every 5 Ticks
+        this.sweep = new EncumbranceSweep(this);
+        Bukkit.getScheduler().runTaskTimer(this, sweep, 1, 1);
+        Bukkit.getScheduler().runTaskTimerAsynchronously(this, () -> Encumbered.PLAYERS.evictAbandoned(PRELOAD_TIMEOUT), 1200, 1200); // Every minute
+        
+        long bypassRefresh = getConfig().getLong("Bypass Refresh Interval", BYPASS_REFRESH) * 20; // Seconds to ticks
+        Bukkit.getScheduler().runTaskTimer(this, this::refreshBypass, bypassRefresh, bypassRefresh);
     }
     
-    @Override
-    public void onDisable() {
-        Encumbered.MATERIAL_WEIGHTS.clear();
-        Encumbered.ENCUMBERED_PLAYERS.clear();
+    /**
+     * Re-reads config.yml and weights.yml and swaps in the new config. Only 
+     * players affected by what changed are recomputed. The override store, 
+     * Save Delay and Bypass Refresh Interval still require a restart.
+     * 
+     * @return The new config
+     */
+    protected EncumberedConfig reload() {
+        weightsWriter.close();
+        reloadConfig();
+        
+        this.weights = YamlConfiguration.loadConfiguration(weightsFile);
+        this.weightsWriter = new WriteBehindFile(this, weights, weightsFile, getSaveDelay());
+        
+        EncumberedConfig next = EncumberedConfig.load(getConfig(), weights, getLogger());
+        EncumberedConfig previous = Encumbered.CONFIG.getAndSet(next);
+        
+        applyConfig(previous, next);
+        
+        return next;
     }
     
-    @Override
-    public void run() {
-        Collection<? extends Player> snapshot = Bukkit.getOnlinePlayers();
+    /**
+     * Writes the default config.yml, overrides.yml and weights.yml and reloads. 
+     * The weights writer is closed first, so pending weight changes are written 
+     * before the defaults instead of over them.
+     * 
+     * @return The new config
+     */
+    protected EncumberedConfig reset() {
+        weightsWriter.close();
         
-        snapshot.forEach((player) -> {
-            EncumberedPlayer ep = Encumbered.getPlayer(player);
-            
-            if (ep.canBypass()) return;
-            
-            double current = ep.calculateCarriedWeight();
-            double max = ep.getMaxCarryWeight();
-            
-            if (current >= max) {
-                if (messageQueue.getIfPresent(player.getUniqueId()) == null) {
-                    messageQueue.put(player.getUniqueId(), System.nanoTime());
-                    exec.sendMessage(player, "You are over encumbered. Drop a few items to speed up.");
-                }
-                
-                float flySpeed = (float) getConfig().getDouble("Over Encumbered.Fly Speed", Encumbered.DEFAULT_FLY_SPEED);
-                float walkSpeed = (float) getConfig().getDouble("Over Encumbered.Fly Speed", Encumbered.DEFAULT_WALK_SPEED);
-                
-                EncumberedSpeedChangeEvent flyChange = new EncumberedSpeedChangeEvent(ep, flySpeed, EncumberedSpeedChangeEvent.SpeedType.FLY);
-                EncumberedSpeedChangeEvent walkChange = new EncumberedSpeedChangeEvent(ep, walkSpeed, EncumberedSpeedChangeEvent.SpeedType.WALK);
-                
-                Bukkit.getPluginManager().callEvent(flyChange);
-                Bukkit.getPluginManager().callEvent(walkChange);
-                
-                player.setFlySpeed(flyChange.getToSpeed());
-                player.setWalkSpeed(walkChange.getToSpeed());
-            } else if (messageQueue.getIfPresent(player.getUniqueId()) != null) {
-                Bukkit.getPluginManager().callEvent(new EncumberedSpeedChangeEvent(ep, EncumberedSpeedChangeEvent.SpeedType.RESET));
-                player.setWalkSpeed(Encumbered.DEFAULT_WALK_SPEED);
-                player.setFlySpeed(Encumbered.DEFAULT_FLY_SPEED);
-                messageQueue.invalidate(player.getUniqueId());
-            }
-        });
+        saveResource("config.yml", true);
+        saveResource("overrides.yml", true);
+        saveResource("weights.yml", true);
+        
+        return reload();
     }
     
-    @EventHandler
-    public void tooltipInvOpen(InventoryOpenEvent event) {
-        if (!Encumbered.weightedTooltip) return;
+    /**
+     * Updates everything that was built from the previous config
+     * 
+     * @param previous The replaced config or null when enabling
+     * @param next The config now in use
+     */
+    private void applyConfig(EncumberedConfig previous, EncumberedConfig next) {
+        debug = next.isDebug();
+        PluginStats.enabled = next.isCollectStats();
+        
+        if (previous == null || previous.getMessageInterval() != next.getMessageInterval()) {
+            this.messageQueue = CacheBuilder.newBuilder()
+                    .expireAfterWrite(next.getMessageInterval(), TimeUnit.MINUTES)
+                    .build();
+        }
+        
+        if (!next.isItemCacheEnabled()) {
+            Encumbered.itemCache = null;
+        } else if (previous == null || !previous.isItemCacheEnabled() || previous.getItemCacheSize() != next.getItemCacheSize()) {
+            Encumbered.itemCache = new ItemWeightCache(next.getItemCacheSize());
+        }
         
-        ItemStack[] contents = event.getInventory().getStorageContents();
+        if (previous == null) {
+            Encumbered.invalidateCaches();
+            return;
+        }
+        
+        boolean reweigh = !previous.weighsLike(next);
+        boolean margins = previous.getEnterMargin() != next.getEnterMargin() || previous.getLeaveMargin() != next.getLeaveMargin();
+        boolean capacity = previous.getDefaultMaxCarryWeight() != next.getDefaultMaxCarryWeight();
+        
+        if (reweigh) {
+            Encumbered.invalidateCaches();
+        }
         
-        for (int i = 0; i < contents.length; i++) {
-            ItemStack content = contents[i];
+        for (EncumberedPlayer ep : Encumbered.PLAYERS.getPlayers()) {
+            if (reweigh) {
+                ep.markAllDirty();
+            } else if (margins) {
+                ep.queueEvaluation();
+            }
+            
+            if (capacity) {
+                ep.refreshMaxCarryWeight();
+            }
+        }
+        
+        if (!previous.getSpeedCurve().equals(next.getSpeedCurve())) {
+            sweep.refreshSpeeds();
+        }
+    }
+    
+    /**
+     * Bukkit has no event for permission changes, so every online player has 
+     * their cached bypass decision recomputed on a slow timer.
+     */
+    private void refreshBypass() {
+        for (EncumberedPlayer ep : Encumbered.PLAYERS.getPlayers()) {
+            Player player = Bukkit.getPlayer(ep.getUuid());
+            
+            if (player == null) continue;
             
-            if (content == null) continue;
+            boolean before = ep.canBypass();
             
-            content = Encumbered.addWeightTooltip(content);
-            contents[i] = content;
+            if (ep.refreshBypass(player, player.getGameMode()) != before) {
+                ep.queueEvaluation();
+            }
+        }
+    }
+    
+    private long getSaveDelay() {
+        return getConfig().getLong("Save Delay", SAVE_DELAY) * 20; // Seconds to ticks
+    }
+    
+    /**
+     * 
+     * @param type 'yaml' or 'binary'
+     * @param readOnly Only used by the binary store. Nothing is written when true
+     * @return A new, not yet loaded, store
+     */
+    protected OverrideStore createOverrideStore(String type, boolean readOnly) {
+        if ("binary".equalsIgnoreCase(type)) {
+            return new BinaryOverrideStore(new File(getDataFolder(), "overrides.dat"), new File(getDataFolder(), "overrides.log"), readOnly, getLogger());
         }
         
-        event.getInventory().setContents(contents);
+        return new YamlOverrideStore(this, overridesFile, getSaveDelay());
     }
     
-    @EventHandler
-    public void tooltipInvDrag(InventoryDragEvent event) {
-        if (!Encumbered.weightedTooltip) return;
+    @Override
+    public void onDisable() {
+        if (weightsWriter != null) weightsWriter.close();
+        if (overrideStore != null) overrideStore.close();
         
-        event.setCursor(Encumbered.addWeightTooltip(event.getCursor()));
+        Encumbered.capacity = CapacityProvider.DEFAULT;
+        Encumbered.CONFIG.set(EncumberedConfig.DEFAULT);
+        Encumbered.invalidateCaches();
+        Encumbered.itemCache = null;
+        Encumbered.PLAYERS.clear();
     }
     
     @EventHandler( priority = EventPriority.LOW )
@@ -273,6 +328,16 @@ public class EncumberedPlugin extends JavaPlugin implements Listener, Runnable {
         if (event.isCancelled()) return;
         if (!(event.getEntity() instanceof Player)) return;
         
+        long start = PluginStats.start();
+        
+        try {
+            itemPickup(event);
+        } finally {
+            PluginStats.PICKUP.recordSince(start);
+        }
+    }
+    
+    private void itemPickup(EntityPickupItemEvent event) {
         Player player = (Player) event.getEntity();
         ItemStack item = event.getItem().getItemStack();
         EncumberedPlayer wp = Encumbered.getPlayer(player);
@@ -286,37 +351,103 @@ public class EncumberedPlugin extends JavaPlugin implements Listener, Runnable {
             double max = wp.getMaxCarryWeight();
             
             exec.sendMessage(player, "You are carrying too much. Please drop " + ((current + itemWeight) - max) + " weight.");
+            return;
         }
         
-        if (!Encumbered.weightedTooltip) return;
+        if (!Encumbered.getConfig().isWeightedTooltip()) return;
         
-        event.getItem().setItemStack(Encumbered.addWeightTooltip(item));
+        if (Encumbered.applyWeightTooltip(item)) {
+            event.getItem().setItemStack(item);
+        }
     }
     
     @EventHandler( priority = EventPriority.LOW )
     public void onToggleSprint(PlayerToggleSprintEvent event) {
-        if (event.isCancelled()) return;
+        if (event.isCancelled() || !event.isSprinting()) return;
+        
+        // Fast path. Only players that are encumbered are timed
+        EncumberedPlayer wp = Encumbered.getPlayerIfPresent(event.getPlayer().getUniqueId());
+        
+        if (wp == null || !wp.isEncumbered()) return;
         
-        EncumberedPlayer wp = Encumbered.getPlayer(event.getPlayer());
+        long start = PluginStats.start();
         
+        try {
+            toggleSprint(event, wp);
+        } finally {
+            PluginStats.SPRINT.recordSince(start);
+        }
+    }
+    
+    private void toggleSprint(PlayerToggleSprintEvent event, EncumberedPlayer wp) {
         if (wp.canBypass()) return;
         
-        double current = wp.calculateCarriedWeight();
-        double max = wp.getMaxCarryWeight();
+        event.setCancelled(true);
+        event.getPlayer().setSprinting(false);
+
+        exec.sendMessage(event.getPlayer(), "Cannot spring while over encumbered.");
+    }
+    
+    @EventHandler( priority = EventPriority.MONITOR )
+    public void onPreLogin(AsyncPlayerPreLoginEvent event) {
+        if (event.getLoginResult() != AsyncPlayerPreLoginEvent.Result.ALLOWED) return;
         
-        if (current >= max && event.isSprinting()) {
-            event.setCancelled(true);
-            event.getPlayer().setSprinting(false);
-            
-            exec.sendMessage(event.getPlayer(), "Cannot spring while over encumbered.");
+        Encumbered.PLAYERS.preload(event.getUniqueId());
+    }
+    
+    @EventHandler( priority = EventPriority.MONITOR )
+    public void onLogin(PlayerLoginEvent event) {
+        if (event.getResult() == PlayerLoginEvent.Result.ALLOWED) return;
+        
+        EncumberedPlayer ep = Encumbered.getPlayerIfPresent(event.getPlayer().getUniqueId());
+        
+        if (ep != null && ep.isPreloaded()) {
+            Encumbered.PLAYERS.remove(ep.getUuid());
         }
     }
     
-    @EventHandler
+    @EventHandler( priority = EventPriority.LOWEST )
+    public void onPlayerJoin(PlayerJoinEvent event) {
+        Player player = event.getPlayer();
+        EncumberedPlayer ep = Encumbered.getPlayer(player);
+        
+        ep.setPreloaded(false);
+        ep.invalidateBypass();
+        onlineNames.add(player.getName());
+        ep.rescan(InventorySource.of(player.getInventory()));
+        ep.queueEvaluation();
+    }
+    
+    @EventHandler( priority = EventPriority.MONITOR, ignoreCancelled = true )
+    public void onGameModeChange(PlayerGameModeChangeEvent event) {
+        EncumberedPlayer ep = Encumbered.getPlayerIfPresent(event.getPlayer().getUniqueId());
+        
+        if (ep == null) return;
+        
+        ep.refreshBypass(event.getPlayer(), event.getNewGameMode());
+        ep.queueEvaluation();
+    }
+    
+    @EventHandler( priority = EventPriority.MONITOR )
+    public void onWorldChange(PlayerChangedWorldEvent event) {
+        EncumberedPlayer ep = Encumbered.getPlayerIfPresent(event.getPlayer().getUniqueId());
+        
+        if (ep == null) return;
+        
+        // Per-world permission plugins change permissions here
+        ep.invalidateBypass();
+        ep.queueEvaluation();
+    }
+    
+    @EventHandler( priority = EventPriority.MONITOR )
     public void onPlayerLeave(PlayerQuitEvent event) {
         Player player = event.getPlayer();
         player.setWalkSpeed(Encumbered.DEFAULT_WALK_SPEED);
         player.setFlySpeed(Encumbered.DEFAULT_FLY_SPEED);
+        
+        Encumbered.PLAYERS.remove(player.getUniqueId());
+        onlineNames.remove(player.getName());
+        messageQueue.invalidate(player.getUniqueId());
     }
     
     @EventHandler
@@ -333,25 +464,34 @@ public class EncumberedPlugin extends JavaPlugin implements Listener, Runnable {
     public void onPlayerJump(PlayerMoveEvent event) {
         if (event.isCancelled()) return;
         
+        // Fast path. Most movement comes from players that are not encumbered, 
+        // those are not timed
+        EncumberedPlayer wp = Encumbered.getPlayerIfPresent(event.getPlayer().getUniqueId());
+        
+        if (wp == null || !wp.isEncumbered()) return;
+        
+        long start = PluginStats.start();
+        
+        try {
+            playerJump(event, wp);
+        } finally {
+            PluginStats.MOVE.recordSince(start);
+        }
+    }
+    
+    private void playerJump(PlayerMoveEvent event, EncumberedPlayer wp) {
         Player player = event.getPlayer();
-        EncumberedPlayer wp = Encumbered.getPlayer(player);
         
         if (wp.canBypass() || player.isOnGround() || player.getVelocity().getY() < 0) return;
 
         //Special cases for blocks players can climb
-        if (CLIMBABLE_BLOCKS.contains(event.getTo().getBlock().getType())) return;
-        Location locBelow = event.getTo().clone();
-                 locBelow.setY(locBelow.getY() - 1);
-        if (CLIMBABLE_BLOCKS.contains(locBelow.getBlock().getType())) return;
+        Block to = event.getTo().getBlock();
+        if (CLIMBABLE_BLOCKS.contains(to.getType())) return;
+        if (CLIMBABLE_BLOCKS.contains(to.getRelative(BlockFace.DOWN).getType())) return;
         //End Special Cases
         
-        double current = wp.calculateCarriedWeight();
-        double max = wp.getMaxCarryWeight();
-        
-        if (current >= max) {
-            event.setTo(event.getFrom());
+        event.setTo(event.getFrom());
             
-            exec.sendMessage(player, "Cannot jump while over encumbered.");
-        }
+        exec.sendMessage(player, "Cannot jump while over encumbered.");
     }
 }
@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2020 Bryan Larson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package codes.goblom.encumbered;
+
+/**
+ * Encumbrance state of a player. Players switch between the two states with 
+ * hysteresis around their max carry weight, see {@link Encumbered#getSpeedLevel(double, double, int)}. 
+ * Events, speed changes and messages are only sent when the state or the 
+ * speed level changes.
+ * 
+ * @author Bryan Larson
+ */
+public enum EncumbranceState {
+    /**
+     * Carrying less than the max carry weight
+     */
+    NORMAL,
+    /**
+     * Over encumbered
+     */
+    ENCUMBERED;
+    
+    public boolean isEncumbered() {
+        return this == ENCUMBERED;
+    }
+}
@@ -0,0 +1,346 @@
+/*
+ * Copyright (C) 2020 Bryan Larson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package codes.goblom.encumbered;
+
+import codes.goblom.encumbered.events.EncumberedSpeedChangeEvent;
+import com.google.common.collect.Lists;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import lombok.Getter;
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
+
+/**
+ * Periodic encumbrance check. Runs every tick in three stages:
+ * 
+ * 1. Main thread: capture a compact {@link InventorySnapshot} of as many 
+ *    players as fit in the tick budget.
+ * 2. Worker threads: weigh the snapshots and decide who is encumbered.
+ * 3. Main thread: apply the ledgers, speed changes, events and messages in one batch.
+ * 
+ * Players are spread over the ticks of a sweep interval. Each tick takes the 
+ * players queued by inventory changes first, then continues the round robin 
+ * pass over everyone else until the budget runs out. Whatever is left rolls 
+ * over to the next tick.
+ * 
+ * @author Bryan Larson
+ */
+class EncumbranceSweep implements Runnable {
+    
+    private static final int PLAYERS_PER_TASK = 32;
+    
+    private final EncumberedPlugin plugin;
+    private final Logger logger;
+    private final Executor mainThread;
+    private final Executor workerThread;
+    
+    private final Queue<EncumberedPlayer> dirty = new ConcurrentLinkedQueue();
+    private final Deque<UUID> pending = new ArrayDeque();
+    
+    private long tick = 0;
+    private long passStart = Long.MIN_VALUE / 2;
+    private boolean passRunning = false;
+    
+    /**
+     * How many ticks the last complete pass over all players took
+     */
+    @Getter
+    private long lastPassTicks = 0;
+    
+    /**
+     * How many players were captured during the last tick
+     */
+    @Getter
+    private int evaluatedLastTick = 0;
+    
+    /**
+     * The interval and tick budget are read from {@link Encumbered#getConfig()} 
+     * every tick, so a reload applies to the running pass.
+     * 
+     * @param plugin The plugin
+     */
+    EncumbranceSweep(EncumberedPlugin plugin) {
+        this(plugin, plugin.getLogger());
+    }
+    
+    /**
+     * 
+     * @param plugin The plugin
+     * @param logger Where failed sweeps are logged
+     */
+    EncumbranceSweep(EncumberedPlugin plugin, Logger logger) {
+        this.plugin = plugin;
+        this.logger = logger;
+        this.mainThread = (r) -> Bukkit.getScheduler().runTask(plugin, r);
+        this.workerThread = (r) -> Bukkit.getScheduler().runTaskAsynchronously(plugin, r);
+    }
+    
+    /**
+     * Queues a player whose inventory changed. Queued players are evaluated 
+     * before the rest of the pass.
+     */
+    void queue(EncumberedPlayer player) {
+        dirty.add(player);
+    }
+    
+    /**
+     * 
+     * @return Players still waiting to be evaluated, in the current pass and in the dirty queue
+     */
+    public int getBacklog() {
+        return pending.size() + dirty.size();
+    }
+    
+    /**
+     * 
+     * @return How many ticks the current pass is running over the sweep interval. 0 when on time
+     */
+    public long getTicksBehind() {
+        if (!passRunning) return 0;
+        
+        return Math.max(0, (tick - passStart + 1) - Encumbered.getConfig().getSweepInterval());
+    }
+    
+    @Override
+    public void run() {
+        long start = PluginStats.start();
+        
+        try {
+            sweep();
+        } finally {
+            PluginStats.SWEEP.recordSince(start);
+        }
+    }
+    
+    private void sweep() {
+        EncumberedConfig config = Encumbered.getConfig();
+        int interval = config.getSweepInterval();
+        
+        tick++;
+        
+        if (!passRunning && tick - passStart >= interval) {
+            this.passStart = tick;
+            this.passRunning = true;
+            Bukkit.getOnlinePlayers().forEach((player) -> pending.add(player.getUniqueId()));
+        }
+        
+        long deadline = System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(config.getSweepBudget());
+        List<InventorySnapshot> snapshots = Lists.newArrayList();
+        List<EncumberedPlayer> deferred = Lists.newArrayList();
+        
+        EncumberedPlayer next;
+        while ((next = dirty.poll()) != null) {
+            next.dequeued();
+            
+            if (next.evaluating) {
+                deferred.add(next);
+            } else {
+                capture(next, snapshots);
+            }
+            
+            if (System.nanoTime() >= deadline) break;
+        }
+        
+        boolean progress = !snapshots.isEmpty();
+        
+        // Always take at least one player so the pass finishes even without budget
+        while (!pending.isEmpty() && (!progress || System.nanoTime() < deadline)) {
+            progress = true;
+            EncumberedPlayer ep = Encumbered.getPlayerIfPresent(pending.poll());
+            
+            if (ep == null) continue; //Left the server
+            
+            if (ep.evaluating) {
+                deferred.add(ep);
+            } else {
+                capture(ep, snapshots);
+            }
+        }
+        
+        deferred.forEach((ep) -> ep.queueEvaluation(this));
+        
+        if (passRunning && pending.isEmpty()) {
+            this.passRunning = false;
+            this.lastPassTicks = tick - passStart + 1;
+            
+            if (EncumberedPlugin.debug && lastPassTicks > interval) {
+                logger.info("Encumbrance sweep took " + lastPassTicks + " ticks. Sweep Interval is " + interval);
+            }
+        }
+        
+        this.evaluatedLastTick = snapshots.size();
+        PluginStats.recordSweepTick(evaluatedLastTick);
+        
+        if (snapshots.isEmpty()) return;
+        
+        List<List<InventorySnapshot>> partitions = Lists.partition(snapshots, PLAYERS_PER_TASK);
+        CompletableFuture[] tasks = new CompletableFuture[partitions.size()];
+        
+        for (int i = 0; i < tasks.length; i++) {
+            List<InventorySnapshot> partition = partitions.get(i);
+            
+            tasks[i] = CompletableFuture.runAsync(() -> partition.forEach(InventorySnapshot::compute), workerThread);
+        }
+        
+        CompletableFuture.allOf(tasks)
+                .thenRunAsync(() -> apply(snapshots), mainThread)
+                .whenComplete((v, error) -> {
+                    if (error == null) return;
+                    
+                    // Apply never ran. Release the players so they can be evaluated again. 
+                    // A disabled plugin cannot schedule this, so nothing is logged during shutdown
+                    mainThread.execute(() -> {
+                        snapshots.forEach((snapshot) -> snapshot.player.evaluating = false);
+                        logger.log(Level.WARNING, "Encumbrance sweep failed", error);
+                    });
+                });
+    }
+    
+    /**
+     * Stage 1. Main thread
+     */
+    private void capture(EncumberedPlayer ep, List<InventorySnapshot> snapshots) {
+        Player player = Bukkit.getPlayer(ep.getUuid());
+        
+        if (player == null) return;
+        
+        if (ep.canBypass()) {
+            if (ep.isEncumbered()) {
+                leave(ep, player);
+            }
+            
+            return;
+        }
+        
+        ep.evaluating = true;
+        snapshots.add(InventorySnapshot.capture(ep, InventorySource.of(player.getInventory())));
+    }
+    
+    /**
+     * Stage 3. Main thread
+     */
+    private void apply(List<InventorySnapshot> snapshots) {
+        for (InventorySnapshot snapshot : snapshots) {
+            EncumberedPlayer ep = snapshot.player;
+            ep.evaluating = false;
+            
+            Player player = Bukkit.getPlayer(ep.getUuid());
+            
+            if (player == null) continue; //Left while we were computing
+            
+            ep.applyWeights(snapshot.slots, snapshot.weights, snapshot.stamp);
+            
+            if (snapshot.level == ep.getSpeedLevel()) continue; //Same speeds as before, nothing to send
+            
+            if (!snapshot.encumbered) {
+                leave(ep, player);
+            } else if (!ep.isEncumbered()) {
+                enter(ep, player, snapshot.level);
+            } else {
+                changeLevel(ep, player, EncumbranceState.ENCUMBERED, snapshot.level);
+            }
+        }
+    }
+    
+    private void enter(EncumberedPlayer ep, Player player, int level) {
+        ep.setState(EncumbranceState.ENCUMBERED);
+        
+        if (plugin.messageQueue.getIfPresent(player.getUniqueId()) == null) {
+            plugin.messageQueue.put(player.getUniqueId(), System.nanoTime());
+            plugin.exec.sendMessage(player, "You are over encumbered. Drop a few items to speed up.");
+        }
+        
+        changeLevel(ep, player, EncumbranceState.NORMAL, level);
+    }
+    
+    private void leave(EncumberedPlayer ep, Player player) {
+        ep.setState(EncumbranceState.NORMAL);
+        
+        changeLevel(ep, player, EncumbranceState.ENCUMBERED, 0);
+    }
+    
+    /**
+     * Moves a player to a speed level and gives them its speeds. Level 0 has 
+     * the default speeds. Nothing is sent when neither the speeds nor the 
+     * state change, and the {@link EncumberedSpeedChangeEvent} is only built 
+     * when a plugin listens for it.
+     * 
+     * @param from The state the player is leaving
+     * @param level The new speed level
+     */
+    private void changeLevel(EncumberedPlayer ep, Player player, EncumbranceState from, int level) {
+        SpeedCurve curve = Encumbered.getConfig().getSpeedCurve();
+        EncumbranceState to = level > 0 ? EncumbranceState.ENCUMBERED : EncumbranceState.NORMAL;
+        int fromLevel = ep.getSpeedLevel();
+        
+        float fromWalkSpeed = player.getWalkSpeed();
+        float fromFlySpeed = player.getFlySpeed();
+        float walkSpeed = curve.getWalkSpeed(level);
+        float flySpeed = curve.getFlySpeed(level);
+        
+        ep.setSpeedLevel(level);
+        
+        if (from == to && fromWalkSpeed == walkSpeed && fromFlySpeed == flySpeed) return;
+        
+        if (EncumberedSpeedChangeEvent.hasListeners()) {
+            EncumberedSpeedChangeEvent event = new EncumberedSpeedChangeEvent(ep, from, to, fromLevel, level, fromWalkSpeed, fromFlySpeed, walkSpeed, flySpeed);
+            Bukkit.getPluginManager().callEvent(event);
+            
+            walkSpeed = event.getToWalkSpeed();
+            flySpeed = event.getToFlySpeed();
+        }
+        
+        if (walkSpeed != fromWalkSpeed) {
+            player.setWalkSpeed(walkSpeed);
+        }
+        
+        if (flySpeed != fromFlySpeed) {
+            player.setFlySpeed(flySpeed);
+        }
+    }
+    
+    /**
+     * Moves every encumbered player onto the same load on the current speed 
+     * curve and re-applies their speeds. Used when a reload changed the curve. 
+     * Players stay encumbered until their next evaluation.
+     */
+    void refreshSpeeds() {
+        SpeedCurve curve = Encumbered.getConfig().getSpeedCurve();
+        
+        for (EncumberedPlayer ep : Encumbered.PLAYERS.getPlayers()) {
+            if (ep.getState() != EncumbranceState.ENCUMBERED) continue;
+            
+            Player player = Bukkit.getPlayer(ep.getUuid());
+            
+            if (player != null) {
+                double ratio = ep.getMaxCarryWeight() > 0 ? ep.getCarriedWeight() / ep.getMaxCarryWeight() : Double.POSITIVE_INFINITY;
+                
+                changeLevel(ep, player, EncumbranceState.ENCUMBERED, Math.max(1, curve.getLevel(ratio)));
+                ep.queueEvaluation();
+            }
+        }
+    }
+}
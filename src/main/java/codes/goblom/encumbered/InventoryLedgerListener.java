@@ -0,0 +1,270 @@
+/*
+ * Copyright (C) 2020 Bryan Larson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package codes.goblom.encumbered;
+
+import java.util.EnumSet;
+import java.util.Set;
+import org.bukkit.Material;
+import org.bukkit.entity.HumanEntity;
+import org.bukkit.entity.Player;
+import org.bukkit.event.Event;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.block.Action;
+import org.bukkit.event.block.BlockPlaceEvent;
+import org.bukkit.event.entity.EntityPickupItemEvent;
+import org.bukkit.event.entity.EntityShootBowEvent;
+import org.bukkit.event.entity.PlayerDeathEvent;
+import org.bukkit.event.entity.ProjectileLaunchEvent;
+import org.bukkit.event.inventory.InventoryClickEvent;
+import org.bukkit.event.inventory.InventoryDragEvent;
+import org.bukkit.event.player.PlayerBucketEmptyEvent;
+import org.bukkit.event.player.PlayerBucketEvent;
+import org.bukkit.event.player.PlayerBucketFillEvent;
+import org.bukkit.event.player.PlayerDropItemEvent;
+import org.bukkit.event.player.PlayerInteractEvent;
+import org.bukkit.event.player.PlayerItemBreakEvent;
+import org.bukkit.event.player.PlayerItemConsumeEvent;
+import org.bukkit.event.player.PlayerItemDamageEvent;
+import org.bukkit.event.player.PlayerRespawnEvent;
+import org.bukkit.event.player.PlayerSwapHandItemsEvent;
+import org.bukkit.inventory.EquipmentSlot;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.PlayerInventory;
+
+/**
+ * Keeps the weight ledger of every {@link EncumberedPlayer} up to date by marking 
+ * the slots touched by inventory events. Every handler runs at MONITOR so the 
+ * outcome of the event is final; the slots are re-weighed when the ledger is synced.
+ * 
+ * @author Bryan Larson
+ */
+class InventoryLedgerListener implements Listener {
+    
+    /**
+     * Slot indexes of {@link PlayerInventory#getContents()}
+     */
+    private static final int FIRST_ARMOR_SLOT = 36;
+    private static final int OFF_HAND_SLOT = 40;
+    
+    /**
+     * Items that are put on by right clicking with them
+     */
+    private static final Set<Material> WEARABLE = EnumSet.noneOf(Material.class);
+    
+    static {
+        for (Material mat : Material.values()) {
+            if (mat.isLegacy()) continue;
+            
+            String name = mat.name();
+            
+            if (mat == Material.ELYTRA || name.endsWith("_HELMET") || name.endsWith("_CHESTPLATE") || 
+                name.endsWith("_LEGGINGS") || name.endsWith("_BOOTS")) {
+                WEARABLE.add(mat);
+            }
+        }
+    }
+    
+    @EventHandler( priority = EventPriority.MONITOR, ignoreCancelled = true )
+    public void onInventoryClick(InventoryClickEvent event) {
+        HumanEntity who = event.getWhoClicked();
+        
+        if (!(who instanceof Player)) return;
+        
+        EncumberedPlayer ep = Encumbered.getPlayer((Player) who);
+        
+        switch (event.getAction()) {
+            case NOTHING:
+                return;
+            case MOVE_TO_OTHER_INVENTORY:
+            case COLLECT_TO_CURSOR:
+            case HOTBAR_SWAP:
+            case HOTBAR_MOVE_AND_READD:
+            case UNKNOWN:
+                ep.markAllDirty();
+                return;
+            default:
+                if (event.getClickedInventory() instanceof PlayerInventory) {
+                    ep.markSlotDirty(event.getSlot());
+                }
+        }
+    }
+    
+    @EventHandler( priority = EventPriority.MONITOR, ignoreCancelled = true )
+    public void onInventoryDrag(InventoryDragEvent event) {
+        HumanEntity who = event.getWhoClicked();
+        
+        if (!(who instanceof Player)) return;
+        
+        EncumberedPlayer ep = Encumbered.getPlayer((Player) who);
+        int topSize = event.getView().getTopInventory().getSize();
+        
+        for (int rawSlot : event.getRawSlots()) {
+            if (rawSlot < topSize) continue; //Not the players inventory
+            
+            ep.markSlotDirty(event.getView().convertSlot(rawSlot));
+        }
+    }
+    
+    @EventHandler( priority = EventPriority.MONITOR, ignoreCancelled = true )
+    public void onItemPickup(EntityPickupItemEvent event) {
+        if (!(event.getEntity() instanceof Player)) return;
+        
+        Encumbered.getPlayer((Player) event.getEntity()).markAllDirty();
+    }
+    
+    @EventHandler( priority = EventPriority.MONITOR, ignoreCancelled = true )
+    public void onItemDrop(PlayerDropItemEvent event) {
+        Player player = event.getPlayer();
+        
+        Encumbered.getPlayer(player).markSlotDirty(player.getInventory().getHeldItemSlot());
+    }
+    
+    @EventHandler( priority = EventPriority.MONITOR, ignoreCancelled = true )
+    public void onSwapHand(PlayerSwapHandItemsEvent event) {
+        Player player = event.getPlayer();
+        EncumberedPlayer ep = Encumbered.getPlayer(player);
+        
+        ep.markSlotDirty(player.getInventory().getHeldItemSlot());
+        ep.markSlotDirty(OFF_HAND_SLOT);
+    }
+    
+    @EventHandler( priority = EventPriority.MONITOR )
+    public void onItemBreak(PlayerItemBreakEvent event) {
+        markEquipment(event.getPlayer());
+    }
+    
+    @EventHandler( priority = EventPriority.MONITOR, ignoreCancelled = true )
+    public void onItemDamage(PlayerItemDamageEvent event) {
+        markEquipment(event.getPlayer());
+    }
+    
+    @EventHandler( priority = EventPriority.MONITOR, ignoreCancelled = true )
+    public void onItemConsume(PlayerItemConsumeEvent event) {
+        Player player = event.getPlayer();
+        EncumberedPlayer ep = Encumbered.getPlayer(player);
+        
+        ep.markSlotDirty(player.getInventory().getHeldItemSlot());
+        ep.markSlotDirty(OFF_HAND_SLOT);
+    }
+    
+    @EventHandler( priority = EventPriority.MONITOR, ignoreCancelled = true )
+    public void onBlockPlace(BlockPlaceEvent event) {
+        Player player = event.getPlayer();
+        
+        Encumbered.getPlayer(player).markSlotDirty(handSlot(player, event.getHand()));
+    }
+    
+    @EventHandler( priority = EventPriority.MONITOR, ignoreCancelled = true )
+    public void onProjectileLaunch(ProjectileLaunchEvent event) {
+        if (!(event.getEntity().getShooter() instanceof Player)) return;
+        
+        // Snowballs, eggs, ender pearls and tridents are thrown from either hand
+        Player player = (Player) event.getEntity().getShooter();
+        EncumberedPlayer ep = Encumbered.getPlayer(player);
+        
+        ep.markSlotDirty(player.getInventory().getHeldItemSlot());
+        ep.markSlotDirty(OFF_HAND_SLOT);
+    }
+    
+    @EventHandler( priority = EventPriority.MONITOR, ignoreCancelled = true )
+    public void onShootBow(EntityShootBowEvent event) {
+        if (!(event.getEntity() instanceof Player)) return;
+        
+        Player player = (Player) event.getEntity();
+        EncumberedPlayer ep = Encumbered.getPlayer(player);
+        
+        if (event.shouldConsumeItem()) {
+            ep.markAllDirty(); //The arrow can come from any slot
+        } else {
+            ep.markSlotDirty(handSlot(player, event.getHand()));
+        }
+    }
+    
+    @EventHandler( priority = EventPriority.MONITOR, ignoreCancelled = true )
+    public void onBucketEmpty(PlayerBucketEmptyEvent event) {
+        onBucket(event);
+    }
+    
+    @EventHandler( priority = EventPriority.MONITOR, ignoreCancelled = true )
+    public void onBucketFill(PlayerBucketFillEvent event) {
+        onBucket(event);
+    }
+    
+    private void onBucket(PlayerBucketEvent event) {
+        Player player = event.getPlayer();
+        EncumberedPlayer ep = Encumbered.getPlayer(player);
+        int slot = handSlot(player, event.getHand());
+        ItemStack held = player.getInventory().getItem(slot);
+        
+        if (held != null && held.getAmount() > 1) {
+            ep.markAllDirty(); //One bucket of a stack changed, the result goes to any free slot
+        } else {
+            ep.markSlotDirty(slot);
+        }
+    }
+    
+    @EventHandler( priority = EventPriority.MONITOR )
+    public void onInteract(PlayerInteractEvent event) {
+        if (event.getHand() == null || !event.hasItem()) return;
+        if (event.getAction() != Action.RIGHT_CLICK_AIR && event.getAction() != Action.RIGHT_CLICK_BLOCK) return;
+        if (event.useItemInHand() == Event.Result.DENY || !WEARABLE.contains(event.getMaterial())) return;
+        
+        // Right clicking with armor swaps it with the armor slot
+        Player player = event.getPlayer();
+        EncumberedPlayer ep = Encumbered.getPlayer(player);
+        
+        ep.markSlotDirty(handSlot(player, event.getHand()));
+        
+        for (int slot = FIRST_ARMOR_SLOT; slot < OFF_HAND_SLOT; slot++) {
+            ep.markSlotDirty(slot);
+        }
+    }
+    
+    @EventHandler( priority = EventPriority.MONITOR )
+    public void onDeath(PlayerDeathEvent event) {
+        Encumbered.getPlayer(event.getEntity()).markAllDirty();
+    }
+    
+    @EventHandler( priority = EventPriority.MONITOR )
+    public void onRespawn(PlayerRespawnEvent event) {
+        Encumbered.getPlayer(event.getPlayer()).markAllDirty();
+    }
+    
+    /**
+     * Marks both hands and the armor slots. Tools are used and break in 
+     * either hand, armor in the armor slots.
+     */
+    private static void markEquipment(Player player) {
+        EncumberedPlayer ep = Encumbered.getPlayer(player);
+        
+        ep.markSlotDirty(player.getInventory().getHeldItemSlot());
+        
+        for (int slot = FIRST_ARMOR_SLOT; slot <= OFF_HAND_SLOT; slot++) {
+            ep.markSlotDirty(slot);
+        }
+    }
+    
+    /**
+     * 
+     * @return The slot index of {@link PlayerInventory#getContents()} holding the hand
+     */
+    private static int handSlot(Player player, EquipmentSlot hand) {
+        return hand == EquipmentSlot.OFF_HAND ? OFF_HAND_SLOT : player.getInventory().getHeldItemSlot();
+    }
+}
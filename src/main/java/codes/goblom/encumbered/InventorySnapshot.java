@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2020 Bryan Larson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package codes.goblom.encumbered;
+
+import org.bukkit.Material;
+import org.bukkit.inventory.ItemStack;
+
+/**
+ * Compact copy of the inventory slots of a player that need to be re-weighed.
+ * 
+ * Captured on the main thread, weighed on a worker thread and applied back 
+ * to the players ledger on the main thread. Plain stacks are stored as 
+ * material and amount; only stacks whose weight depends on their ItemMeta 
+ * are cloned.
+ * 
+ * @author Bryan Larson
+ */
+class InventorySnapshot {
+    
+    final EncumberedPlayer player;
+    final double maxCarryWeight;
+    final int speedLevel;
+    
+    /**
+     * {@link EncumberedPlayer#stampCapture()} at the time of the capture
+     */
+    final long stamp;
+    
+    final int[] slots;
+    private final Material[] types;
+    private final int[] amounts;
+    private final ItemStack[] metaItems;
+    
+    /**
+     * Weights of bundles and shulker boxes. Their contents can only be read 
+     * on the main thread, so they are weighed while capturing.
+     */
+    private final double[] containerWeights;
+    private final double[] ledger;
+    
+    /**
+     * Results. Written by {@link #compute()}
+     */
+    double[] weights;
+    double carriedWeight;
+    int level;
+    boolean encumbered;
+    
+    private InventorySnapshot(EncumberedPlayer player, double maxCarryWeight, int[] slots, double[] ledger) {
+        this.player = player;
+        this.maxCarryWeight = maxCarryWeight;
+        this.speedLevel = player.getSpeedLevel();
+        this.stamp = player.stampCapture();
+        this.slots = slots;
+        this.types = new Material[slots.length];
+        this.amounts = new int[slots.length];
+        this.metaItems = new ItemStack[slots.length];
+        this.containerWeights = new double[slots.length];
+        this.ledger = ledger;
+    }
+    
+    /**
+     * Must be called from the main thread.
+     * 
+     * @param player The player to capture
+     * @param inv The inventory of the player
+     * @return The snapshot
+     */
+    static InventorySnapshot capture(EncumberedPlayer player, InventorySource inv) {
+        int[] slots = player.takePendingSlots(inv.getSize());
+        InventorySnapshot snapshot = new InventorySnapshot(player, player.getMaxCarryWeight(), slots, player.copyLedger());
+        
+        for (int i = 0; i < slots.length; i++) {
+            ItemStack item = inv.getItem(slots[i]);
+            
+            if (item == null) continue;
+            
+            if (Encumbered.isMetaWeighted(item)) {
+                if (Encumbered.isContainer(item.getType())) {
+                    snapshot.containerWeights[i] = Encumbered.calculateWeight(item);
+                } else {
+                    snapshot.metaItems[i] = item.clone();
+                }
+            } else {
+                snapshot.types[i] = item.getType();
+                snapshot.amounts[i] = item.getAmount();
+            }
+        }
+        
+        return snapshot;
+    }
+    
+    /**
+     * Weighs the captured slots and decides if the player is encumbered. 
+     * Safe to call off the main thread.
+     */
+    void compute() {
+        double[] computed = new double[slots.length];
+        double[] total = ledger.clone();
+        
+        for (int i = 0; i < slots.length; i++) {
+            if (metaItems[i] != null) {
+                computed[i] = Encumbered.calculateWeight(metaItems[i]);
+            } else if (types[i] != null) {
+                computed[i] = Encumbered.calculateWeight(types[i], amounts[i]);
+            } else {
+                computed[i] = containerWeights[i];
+            }
+            
+            if (slots[i] < total.length) {
+                total[slots[i]] = computed[i];
+            }
+        }
+        
+        double current = 0;
+        for (double weight : total) {
+            current += weight;
+        }
+        
+        this.weights = computed;
+        this.carriedWeight = current;
+        this.level = Encumbered.getSpeedLevel(current, maxCarryWeight, speedLevel);
+        this.encumbered = level > 0;
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2020 Bryan Larson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package codes.goblom.encumbered;
+
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.PlayerInventory;
+
+/**
+ * The slots the weight ledger reads from. Keeps the ledger independent of a 
+ * live {@link PlayerInventory} so it can be driven without a server.
+ * 
+ * @author Bryan Larson
+ */
+public interface InventorySource {
+    
+    int getSize();
+    
+    ItemStack getItem(int slot);
+    
+    /**
+     * 
+     * @return A copy of every slot, in slot order
+     */
+    default ItemStack[] getContents() {
+        ItemStack[] contents = new ItemStack[getSize()];
+        
+        for (int i = 0; i < contents.length; i++) {
+            contents[i] = getItem(i);
+        }
+        
+        return contents;
+    }
+    
+    /**
+     * 
+     * @param inv The inventory of a player
+     * @return A source reading the storage, armor and off hand slots of the inventory
+     */
+    static InventorySource of(PlayerInventory inv) {
+        return new InventorySource() {
+            @Override
+            public int getSize() {
+                return inv.getSize();
+            }
+            
+            @Override
+            public ItemStack getItem(int slot) {
+                return inv.getItem(slot);
+            }
+            
+            @Override
+            public ItemStack[] getContents() {
+                return inv.getContents();
+            }
+        };
+    }
+    
+    /**
+     * 
+     * @param contents The slots, read directly and not copied
+     * @return A source backed by the array
+     */
+    static InventorySource of(ItemStack[] contents) {
+        return new InventorySource() {
+            @Override
+            public int getSize() {
+                return contents.length;
+            }
+            
+            @Override
+            public ItemStack getItem(int slot) {
+                return contents[slot];
+            }
+        };
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2020 Bryan Larson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package codes.goblom.encumbered;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.util.function.DoubleSupplier;
+import org.bukkit.Material;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.meta.ItemMeta;
+
+/**
+ * Bounded cache of computed item weights keyed by an item signature 
+ * (material, amount and ItemMeta). Least recently used signatures are 
+ * evicted first once the cache is full.
+ * 
+ * Only used for bundles and shulker boxes, whose weight includes everything 
+ * inside of them. A lookup needs a copy of the ItemMeta and its hashCode, 
+ * which costs more than weighing any other stack.
+ * 
+ * @author Bryan Larson
+ */
+public class ItemWeightCache {
+    
+    private final Cache<Signature, Double> cache;
+    
+    protected ItemWeightCache(long maxSize) {
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .recordStats()
+                .build();
+    }
+    
+    /**
+     * 
+     * @param stack The item to weigh
+     * @param meta The ItemMeta of the item
+     * @param compute Computes the weight when the signature is not cached
+     * @return The weight of the item
+     */
+    protected double get(ItemStack stack, ItemMeta meta, DoubleSupplier compute) {
+        Signature signature = new Signature(stack.getType(), stack.getAmount(), meta);
+        Double weight = cache.getIfPresent(signature);
+        
+        if (weight == null) {
+            weight = compute.getAsDouble();
+            cache.put(signature, weight);
+        }
+        
+        return weight;
+    }
+    
+    protected void invalidate() {
+        cache.invalidateAll();
+    }
+    
+    public long size() {
+        return cache.size();
+    }
+    
+    public long getHits() {
+        return cache.stats().hitCount();
+    }
+    
+    public long getMisses() {
+        return cache.stats().missCount();
+    }
+    
+    public long getEvictions() {
+        return cache.stats().evictionCount();
+    }
+    
+    public double getHitRate() {
+        return cache.stats().hitRate();
+    }
+    
+    private static final class Signature {
+        private final Material type;
+        private final int amount;
+        private final ItemMeta meta;
+        private final int hash;
+        
+        private Signature(Material type, int amount, ItemMeta meta) {
+            this.type = type;
+            this.amount = amount;
+            this.meta = meta;
+            this.hash = 31 * (31 * type.ordinal() + amount) + meta.hashCode();
+        }
+        
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+        
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) return true;
+            if (!(obj instanceof Signature)) return false;
+            
+            Signature other = (Signature) obj;
+            
+            return hash == other.hash && type == other.type && amount == other.amount && meta.equals(other.meta);
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2020 Bryan Larson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package codes.goblom.encumbered;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import lombok.Getter;
+
+/**
+ * Fixed bucket latency histogram. Every power of two is split into four 
+ * buckets, so a percentile is off by at most 25%. Recording is lock free and 
+ * allocation free, it may be called from any thread.
+ * 
+ * @author Bryan Larson
+ */
+public class LatencyHistogram {
+    
+    private static final int SUB_BUCKETS = 4;
+    private static final int BUCKETS = 63 * SUB_BUCKETS;
+    
+    @Getter
+    private final String name;
+    
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+    
+    protected LatencyHistogram(String name) {
+        this.name = name;
+    }
+    
+    /**
+     * 
+     * @param nanos The measured latency in nanoseconds
+     */
+    public void record(long nanos) {
+        if (nanos < 0 || !PluginStats.enabled) return;
+        
+        buckets.incrementAndGet(bucketOf(nanos));
+        count.incrementAndGet();
+        total.addAndGet(nanos);
+        max.accumulateAndGet(nanos, Math::max);
+    }
+    
+    /**
+     * Records the time passed since start. Does nothing when start is 0, see {@link PluginStats#start()}
+     * 
+     * @param start Value of {@link System#nanoTime()} when the measured work started
+     */
+    public void recordSince(long start) {
+        if (start == 0) return;
+        
+        record(System.nanoTime() - start);
+    }
+    
+    public long getCount() {
+        return count.get();
+    }
+    
+    /**
+     * 
+     * @return The highest recorded latency in nanoseconds
+     */
+    public long getMax() {
+        return max.get();
+    }
+    
+    /**
+     * 
+     * @return The mean latency in nanoseconds
+     */
+    public double getMean() {
+        long n = count.get();
+        
+        return n == 0 ? 0 : total.get() / (double) n;
+    }
+    
+    /**
+     * 
+     * @param percentile Between 0 and 1
+     * @return Upper bound of the bucket holding the percentile, in nanoseconds
+     */
+    public long getPercentile(double percentile) {
+        long n = count.get();
+        
+        if (n == 0) return 0;
+        
+        long rank = Math.max(1, (long) Math.ceil(percentile * n));
+        long seen = 0;
+        
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets.get(i);
+            
+            if (seen >= rank) {
+                return Math.min(upperBound(i), getMax());
+            }
+        }
+        
+        return getMax();
+    }
+    
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets.set(i, 0);
+        }
+        
+        count.set(0);
+        total.set(0);
+        max.set(0);
+    }
+    
+    /**
+     * 
+     * @return One line summary with p50, p99 and max in microseconds
+     */
+    public String summary() {
+        return String.format("%s: %d calls, p50 %.1fus, p99 %.1fus, max %.1fus", 
+                name, getCount(), micros(getPercentile(0.5)), micros(getPercentile(0.99)), micros(getMax()));
+    }
+    
+    private static double micros(long nanos) {
+        return nanos / (double) TimeUnit.MICROSECONDS.toNanos(1);
+    }
+    
+    private static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+        
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - 2)) & (SUB_BUCKETS - 1);
+        
+        return (exponent - 1) * SUB_BUCKETS + sub;
+    }
+    
+    private static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) return bucket;
+        
+        int exponent = bucket / SUB_BUCKETS + 1;
+        long sub = bucket % SUB_BUCKETS;
+        long width = 1L << (exponent - 2);
+        
+        return ((SUB_BUCKETS + sub) * width) + width - 1;
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2020 Bryan Larson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package codes.goblom.encumbered;
+
+import java.io.IOException;
+import java.util.UUID;
+import java.util.function.ObjDoubleConsumer;
+
+/**
+ * Storage of per player max carry weight overrides.
+ * 
+ * Implementations must be safe to read from any thread. Writes are made 
+ * from the main thread.
+ * 
+ * @author Bryan Larson
+ */
+public interface OverrideStore {
+    
+    /**
+     * 
+     * @return Name of the backend as used by the 'Override Store' config option
+     */
+    String getName();
+    
+    /**
+     * Loads all overrides from disk. Called once before the store is used.
+     */
+    void load() throws IOException;
+    
+    /**
+     * 
+     * @param id UUID of the player
+     * @param def Returned when the player has no override
+     * @return The override of the player
+     */
+    double get(UUID id, double def);
+    
+    boolean contains(UUID id);
+    
+    void set(UUID id, double weight);
+    
+    void forEach(ObjDoubleConsumer<UUID> consumer);
+    
+    int size();
+    
+    /**
+     * 
+     * @return Changes that have not been written to disk yet
+     */
+    int getPendingWrites();
+    
+    /**
+     * 
+     * @return How long the last write to disk took, in nanoseconds
+     */
+    long getLastFlushLatency();
+    
+    /**
+     * Writes everything to disk and releases the files. The store cannot be used afterwards.
+     */
+    void close();
+}
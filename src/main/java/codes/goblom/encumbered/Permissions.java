@@ -30,6 +30,9 @@ public class Permissions {
     public static final String SET_MATERIAL = BASE + "setmaterial";
     public static final String SET_CARRIED_WEIGHT = BASE + "setcarriedweight";
     public static final String RESET_CONFIG = BASE + "resetconfig";
+    public static final String OVERRIDE_STORE = BASE + "overridestore";
+    public static final String STATS = BASE + "stats";
+    public static final String RELOAD = BASE + "reload";
     
     /*
      * Actions
@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2020 Bryan Larson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package codes.goblom.encumbered;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Holds the {@link EncumberedPlayer} of every online player, keyed by UUID. 
+ * Safe to read from the main thread and from async tasks.
+ * 
+ * Entries are created when a player joins and evicted when they quit.
+ * 
+ * @author Bryan Larson
+ */
+public class PlayerRegistry {
+    
+    private final ConcurrentMap<UUID, EncumberedPlayer> players = new ConcurrentHashMap();
+    
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong evicted = new AtomicLong();
+    private final AtomicLong preloaded = new AtomicLong();
+    private final AtomicInteger peakSize = new AtomicInteger();
+    
+    protected PlayerRegistry() { }
+    
+    /**
+     * 
+     * @param id UUID of the player
+     * @return The registered player or null if the player is not registered
+     */
+    public EncumberedPlayer get(UUID id) {
+        return players.get(id);
+    }
+    
+    protected EncumberedPlayer getOrCreate(UUID id) {
+        EncumberedPlayer player = players.get(id);
+        
+        if (player != null) {
+            return player;
+        }
+        
+        return players.computeIfAbsent(id, (uuid) -> {
+            created.incrementAndGet();
+            peakSize.accumulateAndGet(players.size() + 1, Math::max);
+            
+            return new EncumberedPlayer(uuid);
+        });
+    }
+    
+    /**
+     * Builds the entry of a player that is logging in. Safe to call off the main 
+     * thread, used from AsyncPlayerPreLoginEvent so the override lookup never 
+     * happens on the main thread.
+     * 
+     * @param id UUID of the player
+     * @return The entry of the player
+     */
+    protected EncumberedPlayer preload(UUID id) {
+        return players.computeIfAbsent(id, (uuid) -> {
+            created.incrementAndGet();
+            preloaded.incrementAndGet();
+            peakSize.accumulateAndGet(players.size() + 1, Math::max);
+            
+            EncumberedPlayer player = new EncumberedPlayer(uuid);
+            player.setPreloaded(true);
+            
+            return player;
+        });
+    }
+    
+    /**
+     * Evicts entries that were preloaded but never joined, for example when the 
+     * login was denied after AsyncPlayerPreLoginEvent or the connection dropped.
+     * 
+     * @param maxAge How long a preloaded entry may wait for its player, in milliseconds
+     */
+    protected void evictAbandoned(long maxAge) {
+        long now = System.currentTimeMillis();
+        
+        players.values().removeIf((player) -> {
+            boolean abandoned = player.isPreloaded() && now - player.getCreatedAt() > maxAge;
+            
+            if (abandoned) {
+                evicted.incrementAndGet();
+            }
+            
+            return abandoned;
+        });
+    }
+    
+    protected EncumberedPlayer remove(UUID id) {
+        EncumberedPlayer player = players.remove(id);
+        
+        if (player != null) {
+            evicted.incrementAndGet();
+        }
+        
+        return player;
+    }
+    
+    protected void clear() {
+        evicted.addAndGet(players.size());
+        players.clear();
+    }
+    
+    /**
+     * 
+     * @return Unmodifiable live view of all registered players
+     */
+    public Collection<EncumberedPlayer> getPlayers() {
+        return Collections.unmodifiableCollection(players.values());
+    }
+    
+    public int size() {
+        return players.size();
+    }
+    
+    /**
+     * 
+     * @return The largest amount of players registered at the same time
+     */
+    public int getPeakSize() {
+        return peakSize.get();
+    }
+    
+    /**
+     * 
+     * @return How many entries have been created since the plugin was enabled
+     */
+    public long getTotalCreated() {
+        return created.get();
+    }
+    
+    /**
+     * 
+     * @return How many entries have been built during login since the plugin was enabled
+     */
+    public long getTotalPreloaded() {
+        return preloaded.get();
+    }
+    
+    /**
+     * 
+     * @return How many entries have been evicted since the plugin was enabled
+     */
+    public long getTotalEvicted() {
+        return evicted.get();
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2020 Bryan Larson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package codes.goblom.encumbered;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters and latency histograms of the hot paths, shown by /encumbered stats.
+ * 
+ * @author Bryan Larson
+ */
+public class PluginStats {
+    
+    protected static volatile boolean enabled = true;
+    
+    public static final LatencyHistogram SWEEP = new LatencyHistogram("Sweep");
+    public static final LatencyHistogram MOVE = new LatencyHistogram("Move");
+    public static final LatencyHistogram SPRINT = new LatencyHistogram("Sprint");
+    public static final LatencyHistogram PICKUP = new LatencyHistogram("Pickup");
+    public static final LatencyHistogram INVENTORY_OPEN = new LatencyHistogram("Inventory Open");
+    public static final LatencyHistogram SAVE = new LatencyHistogram("Save");
+    
+    public static final List<LatencyHistogram> HISTOGRAMS = Collections.unmodifiableList(Arrays.asList(
+            SWEEP, MOVE, SPRINT, PICKUP, INVENTORY_OPEN, SAVE
+    ));
+    
+    private static final AtomicLong sweepTicks = new AtomicLong();
+    private static final AtomicLong playersEvaluated = new AtomicLong();
+    private static final AtomicLong maxEvaluatedPerTick = new AtomicLong();
+    
+    private PluginStats() { }
+    
+    /**
+     * 
+     * @return The current {@link System#nanoTime()}, or 0 when stats are disabled
+     */
+    public static long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+    
+    protected static void recordSweepTick(int evaluated) {
+        if (!enabled) return;
+        
+        sweepTicks.incrementAndGet();
+        playersEvaluated.addAndGet(evaluated);
+        maxEvaluatedPerTick.accumulateAndGet(evaluated, Math::max);
+    }
+    
+    /**
+     * 
+     * @return The mean number of players the sweep evaluated per tick
+     */
+    public static double getEvaluatedPerTick() {
+        long ticks = sweepTicks.get();
+        
+        return ticks == 0 ? 0 : playersEvaluated.get() / (double) ticks;
+    }
+    
+    public static long getMaxEvaluatedPerTick() {
+        return maxEvaluatedPerTick.get();
+    }
+    
+    public static long getPlayersEvaluated() {
+        return playersEvaluated.get();
+    }
+    
+    public static void reset() {
+        HISTOGRAMS.forEach(LatencyHistogram::reset);
+        
+        sweepTicks.set(0);
+        playersEvaluated.set(0);
+        maxEvaluatedPerTick.set(0);
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2020 Bryan Larson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package codes.goblom.encumbered;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.logging.Logger;
+import org.bukkit.configuration.ConfigurationSection;
+
+/**
+ * Maps the load of a player, carried weight / max carry weight, to walk and 
+ * fly speeds. Built from the tiers in config.yml into a lookup table with one 
+ * slot per percent of load, so finding the speeds of a player is a single 
+ * array read.
+ * 
+ * Slots with the same speeds share a level. Level 0 is not encumbered and 
+ * uses the default speeds. A player only gets new speeds when their level 
+ * changes.
+ * 
+ * @author Bryan Larson
+ */
+public final class SpeedCurve {
+    
+    /**
+     * Lookup table slots per 100% load
+     */
+    private static final int SLOTS_PER_UNIT = 100;
+    
+    /**
+     * Highest tier, in percent of the max carry weight
+     */
+    private static final int MAX_PERCENT = 1000;
+    
+    private final int[] levels;
+    private final float[] walkSpeeds;
+    private final float[] flySpeeds;
+    
+    private final double enterMargin;
+    private final double leaveMargin;
+    
+    private SpeedCurve(int[] levels, float[] walkSpeeds, float[] flySpeeds, double enterMargin, double leaveMargin) {
+        this.levels = levels;
+        this.walkSpeeds = walkSpeeds;
+        this.flySpeeds = flySpeeds;
+        this.enterMargin = enterMargin;
+        this.leaveMargin = leaveMargin;
+    }
+    
+    /**
+     * 
+     * @param config The contents of config.yml
+     * @param enterMargin Fraction of a tier that has to be passed to enter it
+     * @param leaveMargin Fraction of a tier that has to be dropped below to leave it
+     * @param logger Where skipped tiers are reported
+     * @return The compiled curve
+     */
+    static SpeedCurve load(ConfigurationSection config, double enterMargin, double leaveMargin, Logger logger) {
+        float walkSpeed = (float) config.getDouble("Over Encumbered.Walk Speed", Encumbered.DEFAULT_WALK_SPEED);
+        float flySpeed = (float) config.getDouble("Over Encumbered.Fly Speed", Encumbered.DEFAULT_FLY_SPEED);
+        
+        NavigableMap<Integer, float[]> tiers = new TreeMap();
+        tiers.put(100, new float[] { walkSpeed, flySpeed });
+        
+        ConfigurationSection section = config.getConfigurationSection("Over Encumbered.Tiers");
+        
+        if (section != null) {
+            for (String key : section.getKeys(false)) {
+                int percent;
+                
+                try {
+                    percent = Integer.parseInt(key.trim());
+                } catch (NumberFormatException e) {
+                    percent = -1;
+                }
+                
+                if (percent <= 0 || percent > MAX_PERCENT) {
+                    logger.warning("Tier '" + key + "' is not a percent between 1 and " + MAX_PERCENT + "... Skipping...");
+                    continue;
+                }
+                
+                tiers.put(percent, new float[] {
+                    (float) section.getDouble(key + ".Walk Speed", walkSpeed), 
+                    (float) section.getDouble(key + ".Fly Speed", flySpeed)
+                });
+            }
+        }
+        
+        return compile(tiers, config.getBoolean("Over Encumbered.Smooth", false), enterMargin, leaveMargin);
+    }
+    
+    /**
+     * 
+     * @param tiers Walk and fly speed keyed by percent of the max carry weight
+     * @param smooth true to interpolate between tiers, false to step at each tier
+     */
+    private static SpeedCurve compile(NavigableMap<Integer, float[]> tiers, boolean smooth, double enterMargin, double leaveMargin) {
+        int slots = tiers.lastKey() * SLOTS_PER_UNIT / 100 + 1;
+        int[] levels = new int[slots];
+        float[] walkSpeeds = new float[slots + 1];
+        float[] flySpeeds = new float[slots + 1];
+        int count = 1;
+        
+        walkSpeeds[0] = Encumbered.DEFAULT_WALK_SPEED;
+        flySpeeds[0] = Encumbered.DEFAULT_FLY_SPEED;
+        
+        for (int slot = 0; slot < slots; slot++) {
+            double percent = slot * 100.0 / SLOTS_PER_UNIT;
+            Map.Entry<Integer, float[]> below = tiers.floorEntry((int) percent);
+            
+            if (below == null) continue; // Level 0
+            
+            Map.Entry<Integer, float[]> above = tiers.higherEntry(below.getKey());
+            float walk = below.getValue()[0];
+            float fly = below.getValue()[1];
+            
+            if (smooth && above != null) {
+                double t = (percent - below.getKey()) / (above.getKey() - below.getKey());
+                
+                walk += (above.getValue()[0] - walk) * t;
+                fly += (above.getValue()[1] - fly) * t;
+            }
+            
+            if (count == 1 || walk != walkSpeeds[count - 1] || fly != flySpeeds[count - 1]) {
+                walkSpeeds[count] = walk;
+                flySpeeds[count] = fly;
+                count++;
+            }
+            
+            levels[slot] = count - 1;
+        }
+        
+        return new SpeedCurve(levels, Arrays.copyOf(walkSpeeds, count), Arrays.copyOf(flySpeeds, count), enterMargin, leaveMargin);
+    }
+    
+    /**
+     * 
+     * @param ratio Carried weight / max carry weight
+     * @return The level for the load, ignoring the margins
+     */
+    public int getLevel(double ratio) {
+        if (!(ratio > 0)) return 0; // Also NaN
+        if (ratio >= (double) (levels.length - 1) / SLOTS_PER_UNIT) return levels[levels.length - 1];
+        
+        return levels[(int) (ratio * SLOTS_PER_UNIT)];
+    }
+    
+    /**
+     * Level for the load of a player. A player only moves up a level once 
+     * past it by the Enter Margin, and only moves down once below their 
+     * current level by the Leave Margin. This stops speed flicker for 
+     * players right at a tier.
+     * 
+     * @param current The carried weight
+     * @param max The max carry weight
+     * @param level The current level of the player
+     * @return The new level of the player
+     */
+    public int getLevel(double current, double max, int level) {
+        double ratio = max > 0 ? current / max : Double.POSITIVE_INFINITY;
+        int next = getLevel(ratio);
+        
+        if (next > level) {
+            next = Math.max(level, getLevel(ratio / (1 + enterMargin)));
+        } else if (next < level) {
+            next = Math.min(level, getLevel(ratio / (1 - leaveMargin)));
+        }
+        
+        return next;
+    }
+    
+    /**
+     * 
+     * @return Amount of levels, including level 0
+     */
+    public int getLevels() {
+        return walkSpeeds.length;
+    }
+    
+    public float getWalkSpeed(int level) {
+        return walkSpeeds[level];
+    }
+    
+    public float getFlySpeed(int level) {
+        return flySpeeds[level];
+    }
+    
+    /**
+     * Curves are equal when every load gets the same speeds. Margins are 
+     * not compared.
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) return true;
+        if (!(obj instanceof SpeedCurve)) return false;
+        
+        SpeedCurve other = (SpeedCurve) obj;
+        
+        return Arrays.equals(levels, other.levels) 
+            && Arrays.equals(walkSpeeds, other.walkSpeeds) 
+            && Arrays.equals(flySpeeds, other.flySpeeds);
+    }
+    
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(levels) + Arrays.hashCode(walkSpeeds);
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2020 Bryan Larson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package codes.goblom.encumbered;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import org.bukkit.Bukkit;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.inventory.InventoryClickEvent;
+import org.bukkit.event.inventory.InventoryCloseEvent;
+import org.bukkit.event.inventory.InventoryDragEvent;
+import org.bukkit.event.inventory.InventoryOpenEvent;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.scheduler.BukkitRunnable;
+
+/**
+ * Writes the weight tooltip into the items of opened inventories. Only items 
+ * whose "Weight: " line is missing or wrong are rewritten, and only those slots 
+ * are written back to the inventory.
+ * 
+ * Small inventories are rendered when they are opened. Larger ones render their 
+ * first rows on open and the rest a few rows per tick while someone is still 
+ * looking at them, with one such task per inventory. Clicked slots are rendered 
+ * together on the next tick.
+ * 
+ * @author Bryan Larson
+ */
+class TooltipRenderer implements Listener {
+    
+    private static final int EAGER_SLOTS = 27;
+    private static final int SLOTS_PER_TICK = 27;
+    
+    private final EncumberedPlugin plugin;
+    
+    // Tasks remove themselves on the first tick nobody is looking, so nothing is kept for closed inventories
+    private final Map<Inventory, LazyRender> rendering = new HashMap();
+    
+    private final Map<Inventory, BitSet> clicked = new HashMap();
+    private boolean clickRenderScheduled = false;
+    
+    TooltipRenderer(EncumberedPlugin plugin) {
+        this.plugin = plugin;
+    }
+    
+    @EventHandler( ignoreCancelled = true )
+    public void onInventoryOpen(InventoryOpenEvent event) {
+        long start = PluginStats.start();
+        
+        try {
+            inventoryOpen(event);
+        } finally {
+            PluginStats.INVENTORY_OPEN.recordSince(start);
+        }
+    }
+    
+    private void inventoryOpen(InventoryOpenEvent event) {
+        if (!Encumbered.getConfig().isWeightedTooltip()) return;
+        
+        Inventory inv = event.getInventory();
+        int size = inv.getSize();
+        int rendered = render(inv, 0, Math.min(size, EAGER_SLOTS));
+        
+        if (rendered < size && !rendering.containsKey(inv)) {
+            LazyRender task = new LazyRender(inv, rendered, size);
+            
+            rendering.put(inv, task);
+            task.runTaskTimer(plugin, 1, 1);
+        }
+    }
+    
+    @EventHandler( priority = EventPriority.MONITOR )
+    public void onInventoryClose(InventoryCloseEvent event) {
+        Inventory inv = event.getInventory();
+        
+        // The closing player is still a viewer
+        if (inv.getViewers().size() > 1) return;
+        
+        LazyRender task = rendering.remove(inv);
+        
+        if (task != null) {
+            task.cancel();
+        }
+    }
+    
+    @EventHandler( priority = EventPriority.MONITOR, ignoreCancelled = true )
+    public void onInventoryClick(InventoryClickEvent event) {
+        if (!Encumbered.getConfig().isWeightedTooltip()) return;
+        
+        Inventory inv = event.getClickedInventory();
+        int slot = event.getSlot();
+        
+        if (inv == null || slot < 0) return;
+        
+        // The click is applied after the event, render what ended up in the slot
+        clicked.computeIfAbsent(inv, (k) -> new BitSet()).set(slot);
+        
+        if (clickRenderScheduled) return;
+        
+        this.clickRenderScheduled = true;
+        Bukkit.getScheduler().runTask(plugin, this::renderClicked);
+    }
+    
+    private void renderClicked() {
+        this.clickRenderScheduled = false;
+        
+        for (Map.Entry<Inventory, BitSet> entry : clicked.entrySet()) {
+            Inventory inv = entry.getKey();
+            BitSet slots = entry.getValue();
+            
+            for (int slot = slots.nextSetBit(0); slot >= 0 && slot < inv.getSize(); slot = slots.nextSetBit(slot + 1)) {
+                render(inv, slot, slot + 1);
+            }
+        }
+        
+        clicked.clear();
+    }
+    
+    @EventHandler( ignoreCancelled = true )
+    public void onInventoryDrag(InventoryDragEvent event) {
+        if (!Encumbered.getConfig().isWeightedTooltip()) return;
+        
+        ItemStack cursor = event.getCursor();
+        
+        if (Encumbered.applyWeightTooltip(cursor)) {
+            event.setCursor(cursor);
+        }
+    }
+    
+    /**
+     * 
+     * @return The index after the last rendered slot
+     */
+    private static int render(Inventory inv, int from, int to) {
+        for (int i = from; i < to; i++) {
+            ItemStack item = inv.getItem(i);
+            
+            if (Encumbered.applyWeightTooltip(item)) {
+                inv.setItem(i, item);
+            }
+        }
+        
+        return to;
+    }
+    
+    private class LazyRender extends BukkitRunnable {
+        
+        private final Inventory inv;
+        private final int size;
+        private int next;
+        
+        LazyRender(Inventory inv, int next, int size) {
+            this.inv = inv;
+            this.next = next;
+            this.size = size;
+        }
+        
+        @Override
+        public void run() {
+            if (!Encumbered.getConfig().isWeightedTooltip() || inv.getViewers().isEmpty()) {
+                finish();
+                return;
+            }
+            
+            next = render(inv, next, Math.min(size, next + SLOTS_PER_TICK));
+            
+            if (next >= size) {
+                finish();
+            }
+        }
+        
+        private void finish() {
+            cancel();
+            rendering.remove(inv, this);
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2020 Bryan Larson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package codes.goblom.encumbered;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import org.bukkit.Bukkit;
+import org.bukkit.Material;
+import org.bukkit.NamespacedKey;
+import org.bukkit.Tag;
+import org.bukkit.configuration.ConfigurationSection;
+
+/**
+ * Compiles the rules in weights.yml into a {@link WeightTable}. A key is one of
+ * 
+ * - A material name: DIAMOND_BLOCK
+ * - A pattern over material names. * matches any run of characters, ? a single character: "*_ORE"
+ * - An item or block tag: "#minecraft:logs". The namespace defaults to minecraft
+ * 
+ * When several rules match a material a material name wins over a pattern and 
+ * a pattern wins over a tag. Between rules of the same kind the one further 
+ * down the file wins. Rules are only looked at here, a weight lookup is still 
+ * a single array read.
+ * 
+ * @author Bryan Larson
+ */
+class WeightRules {
+    
+    private static final String TAG_PREFIX = "#";
+    
+    private WeightRules() { }
+    
+    /**
+     * 
+     * @param weights The contents of weights.yml
+     * @param countBundle If bundles are weighed by their contents, in which case they get no weight of their own
+     * @param logger Where skipped rules are reported
+     * @return The weight of every material matched by a rule
+     */
+    static WeightTable compile(ConfigurationSection weights, boolean countBundle, Logger logger) {
+        Map<Material, Double> tagged = new EnumMap(Material.class);
+        Map<Material, Double> matched = new EnumMap(Material.class);
+        Map<Material, Double> named = new EnumMap(Material.class);
+        
+        for (String rule : weights.getKeys(false)) {
+            double weight = weights.getDouble(rule);
+            
+            if (rule.startsWith(TAG_PREFIX)) {
+                Set<Material> values = resolveTag(rule.substring(1));
+                
+                if (values == null) {
+                    logger.warning("Tag '" + rule + "' doesn't seem to exist... Skipping...");
+                    continue;
+                }
+                
+                boolean found = false;
+                
+                for (Material mat : values) {
+                    if (isWeighable(mat, countBundle)) {
+                        tagged.put(mat, weight);
+                        found = true;
+                    }
+                }
+                
+                if (!found) {
+                    logger.warning("Tag '" + rule + "' doesn't contain any material that can have a weight... Skipping...");
+                }
+            } else if (isPattern(rule)) {
+                Pattern pattern = compilePattern(rule);
+                boolean found = false;
+                
+                for (Material mat : Material.values()) {
+                    if (!mat.isLegacy() && isWeighable(mat, countBundle) && pattern.matcher(mat.name()).matches()) {
+                        matched.put(mat, weight);
+                        found = true;
+                    }
+                }
+                
+                if (!found) {
+                    logger.warning("Pattern '" + rule + "' doesn't match any material... Skipping...");
+                }
+            } else {
+                Material mat = Material.matchMaterial(rule);
+                
+                if (mat == null) {
+                    logger.warning("Material '" + rule + "' doesn't seem to exist... Skipping...");
+                    continue;
+                }
+                
+                if (mat.isAir()) {
+                    logger.warning("Found AIR type material in Material Weights... Skipping...");
+                    continue;
+                }
+                
+                if (mat == Material.BUNDLE && countBundle) {
+                    logger.warning("Found BUNDLE material. You also have 'Count Bundle' as true. Skipping...");
+                    continue;
+                }
+                
+                named.put(mat, weight);
+            }
+        }
+        
+        Map<Material, Double> materialWeights = new EnumMap(Material.class);
+        materialWeights.putAll(tagged);
+        materialWeights.putAll(matched);
+        materialWeights.putAll(named);
+        
+        return WeightTable.compile(materialWeights);
+    }
+    
+    /**
+     * 
+     * @param name Tag name without the leading #
+     * @return The materials in the item tag, or the block tag if there is no such item tag. null if neither exists
+     */
+    private static Set<Material> resolveTag(String name) {
+        NamespacedKey key = NamespacedKey.fromString(name.toLowerCase(Locale.ROOT));
+        
+        if (key == null) return null;
+        
+        Tag<Material> tag = Bukkit.getTag(Tag.REGISTRY_ITEMS, key, Material.class);
+        
+        if (tag == null) {
+            tag = Bukkit.getTag(Tag.REGISTRY_BLOCKS, key, Material.class);
+        }
+        
+        return tag == null ? null : tag.getValues();
+    }
+    
+    /**
+     * Tags and patterns are allowed to cover AIR and BUNDLE, those are just left out
+     */
+    private static boolean isWeighable(Material mat, boolean countBundle) {
+        return !mat.isAir() && !(mat == Material.BUNDLE && countBundle);
+    }
+    
+    private static boolean isPattern(String rule) {
+        return rule.indexOf('*') >= 0 || rule.indexOf('?') >= 0;
+    }
+    
+    private static Pattern compilePattern(String rule) {
+        StringBuilder regex = new StringBuilder();
+        
+        for (char c : rule.toUpperCase(Locale.ROOT).toCharArray()) {
+            if (c == '*') {
+                regex.append(".*");
+            } else if (c == '?') {
+                regex.append('.');
+            } else if (Character.isLetterOrDigit(c) || c == '_') {
+                regex.append(c);
+            } else {
+                regex.append('\\').append(c);
+            }
+        }
+        
+        return Pattern.compile(regex.toString());
+    }
+}
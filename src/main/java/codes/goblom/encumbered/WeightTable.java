@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2020 Bryan Larson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package codes.goblom.encumbered;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import org.bukkit.Material;
+
+/**
+ * Immutable weight lookup indexed by {@link Material#ordinal()}. 
+ * Changes are made by creating a new table with {@link #with(Material, double)}.
+ * 
+ * @author Bryan Larson
+ */
+public final class WeightTable {
+    
+    /**
+     * Marker for materials that do not have a weight
+     */
+    public static final double UNSET = Double.NaN;
+    
+    private static final Material[] MATERIALS = Material.values();
+    
+    public static final WeightTable EMPTY = new WeightTable(newArray());
+    
+    private final double[] weights;
+    
+    private WeightTable(double[] weights) {
+        this.weights = weights;
+    }
+    
+    private static double[] newArray() {
+        double[] array = new double[MATERIALS.length];
+        Arrays.fill(array, UNSET);
+        
+        return array;
+    }
+    
+    public static WeightTable compile(Map<Material, Double> weights) {
+        double[] array = newArray();
+        
+        weights.forEach((mat, weight) -> array[mat.ordinal()] = weight);
+        
+        return new WeightTable(array);
+    }
+    
+    /**
+     * 
+     * @param mat The material
+     * @return The weight of the material; 0 if it has none
+     */
+    public double get(Material mat) {
+        double weight = weights[mat.ordinal()];
+        
+        return weight == weight ? weight : 0.0; // NaN != NaN
+    }
+    
+    public boolean isSet(Material mat) {
+        return !Double.isNaN(weights[mat.ordinal()]);
+    }
+    
+    /**
+     * 
+     * @param mat The material to change
+     * @param weight The new weight, or {@link #UNSET}
+     * @return A copy of this table with the weight changed
+     */
+    public WeightTable with(Material mat, double weight) {
+        double[] array = weights.clone();
+        array[mat.ordinal()] = weight;
+        
+        return new WeightTable(array);
+    }
+    
+    public Map<Material, Double> toMap() {
+        Map<Material, Double> map = new EnumMap(Material.class);
+        
+        for (int i = 0; i < weights.length; i++) {
+            if (!Double.isNaN(weights[i])) {
+                map.put(MATERIALS[i], weights[i]);
+            }
+        }
+        
+        return map;
+    }
+    
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) return true;
+        if (!(obj instanceof WeightTable)) return false;
+        
+        return Arrays.equals(weights, ((WeightTable) obj).weights);
+    }
+    
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(weights);
+    }
+}
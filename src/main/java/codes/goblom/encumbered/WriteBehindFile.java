@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2020 Bryan Larson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package codes.goblom.encumbered;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import lombok.Getter;
+import org.bukkit.Bukkit;
+import org.bukkit.configuration.file.FileConfiguration;
+import org.bukkit.plugin.Plugin;
+
+/**
+ * Write-behind saving of a {@link FileConfiguration}. Changes only mark the 
+ * file dirty; all changes made within the save delay are written together 
+ * on a background thread. The file is written to a temp file first and then 
+ * moved over the old one, so a crash never leaves a half written file.
+ * 
+ * @author Bryan Larson
+ */
+public class WriteBehindFile {
+    
+    private final Plugin plugin;
+    private final File file;
+    private final long delayTicks;
+    
+    @Getter
+    private final FileConfiguration config;
+    
+    private final AtomicInteger pendingChanges = new AtomicInteger();
+    private boolean scheduled = false;
+    private boolean closed = false;
+    
+    private long version = 0;
+    private long writtenVersion = 0;
+    private final Object writeLock = new Object();
+    
+    /**
+     * How long the last write took, in nanoseconds
+     */
+    @Getter
+    private volatile long lastFlushLatency = 0;
+    
+    @Getter
+    private volatile long totalFlushes = 0;
+    
+    protected WriteBehindFile(Plugin plugin, FileConfiguration config, File file, long delayTicks) {
+        this.plugin = plugin;
+        this.config = config;
+        this.file = file;
+        this.delayTicks = Math.max(1, delayTicks);
+    }
+    
+    /**
+     * Marks the file as changed. Must be called from the main thread after 
+     * changing the config.
+     */
+    protected synchronized void markDirty() {
+        if (closed) throw new IllegalStateException(file.getName() + " writer is closed");
+        
+        pendingChanges.incrementAndGet();
+        
+        if (scheduled) return;
+        
+        this.scheduled = true;
+        Bukkit.getScheduler().runTaskLater(plugin, this::flushAsync, delayTicks);
+    }
+    
+    /**
+     * 
+     * @return Changes made since the last write was started
+     */
+    public int getPendingChanges() {
+        return pendingChanges.get();
+    }
+    
+    private void flushAsync() {
+        final String data;
+        final long snapshot;
+        
+        synchronized (this) {
+            this.scheduled = false;
+            
+            if (closed || pendingChanges.getAndSet(0) == 0) return;
+            
+            data = config.saveToString();
+            snapshot = ++version;
+        }
+        
+        Bukkit.getScheduler().runTaskAsynchronously(plugin, () -> write(data, snapshot));
+    }
+    
+    /**
+     * Writes all pending changes right away on the calling thread. 
+     * Used when the plugin is disabled.
+     */
+    protected void flush() {
+        final String data;
+        final long snapshot;
+        
+        synchronized (this) {
+            if (pendingChanges.getAndSet(0) == 0) return;
+            
+            data = config.saveToString();
+            snapshot = ++version;
+        }
+        
+        write(data, snapshot);
+    }
+    
+    /**
+     * Writes all pending changes and waits for a background write that is 
+     * still running. Must be called before another WriteBehindFile for the 
+     * same file is created, both would write the same temp file.
+     */
+    protected void close() {
+        synchronized (this) {
+            this.closed = true;
+        }
+        
+        flush();
+        
+        synchronized (writeLock) {
+            // Nothing to do, only waits for a write started by flushAsync
+        }
+    }
+    
+    private void write(String data, long snapshot) {
+        synchronized (writeLock) {
+            if (snapshot <= writtenVersion) return; //A newer version was already written
+            
+            long start = System.nanoTime();
+            
+            try {
+                Path target = file.toPath();
+                Path temp = target.resolveSibling(file.getName() + ".tmp");
+                
+                Files.createDirectories(target.getParent());
+                Files.write(temp, data.getBytes(StandardCharsets.UTF_8));
+                
+                try {
+                    Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+                }
+                
+                this.writtenVersion = snapshot;
+            } catch (IOException ex) {
+                plugin.getLogger().log(Level.WARNING, "Unable to save " + file.getName() + ". Error: {0}", ex);
+            }
+            
+            this.lastFlushLatency = System.nanoTime() - start;
+            this.totalFlushes++;
+            PluginStats.SAVE.record(lastFlushLatency);
+        }
+    }
+    
+    /**
+     * 
+     * @return How long the last write took, in milliseconds
+     */
+    public double getLastFlushMillis() {
+        return lastFlushLatency / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
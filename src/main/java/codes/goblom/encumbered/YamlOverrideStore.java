@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2020 Bryan Larson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package codes.goblom.encumbered;
+
+import java.io.File;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.ObjDoubleConsumer;
+import org.bukkit.configuration.file.FileConfiguration;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.plugin.Plugin;
+
+/**
+ * The original overrides.yml backend. Keys are player UUIDs, values the 
+ * max carry weight. Lookups are served from an in memory map, the YAML 
+ * document is only touched on changes and saved through a {@link WriteBehindFile}.
+ * 
+ * @author Bryan Larson
+ */
+class YamlOverrideStore implements OverrideStore {
+    
+    private final Plugin plugin;
+    private final File file;
+    private final long saveDelay;
+    
+    private final ConcurrentMap<UUID, Double> overrides = new ConcurrentHashMap();
+    private FileConfiguration config;
+    private WriteBehindFile writer;
+    
+    YamlOverrideStore(Plugin plugin, File file, long saveDelay) {
+        this.plugin = plugin;
+        this.file = file;
+        this.saveDelay = saveDelay;
+    }
+    
+    @Override
+    public String getName() {
+        return "yaml";
+    }
+    
+    @Override
+    public void load() {
+        this.config = YamlConfiguration.loadConfiguration(file);
+        this.writer = new WriteBehindFile(plugin, config, file, saveDelay);
+        
+        for (String key : config.getKeys(false)) {
+            UUID id;
+            
+            try {
+                id = UUID.fromString(key);
+            } catch (IllegalArgumentException e) {
+                plugin.getLogger().warning("'" + key + "' in " + file.getName() + " is not a UUID... Skipping...");
+                continue;
+            }
+            
+            overrides.put(id, config.getDouble(key));
+        }
+    }
+    
+    @Override
+    public double get(UUID id, double def) {
+        return overrides.getOrDefault(id, def);
+    }
+    
+    @Override
+    public boolean contains(UUID id) {
+        return overrides.containsKey(id);
+    }
+    
+    @Override
+    public void set(UUID id, double weight) {
+        overrides.put(id, weight);
+        config.set(id.toString(), weight);
+        writer.markDirty();
+    }
+    
+    @Override
+    public void forEach(ObjDoubleConsumer<UUID> consumer) {
+        overrides.forEach(consumer::accept);
+    }
+    
+    @Override
+    public int size() {
+        return overrides.size();
+    }
+    
+    @Override
+    public int getPendingWrites() {
+        return writer.getPendingChanges();
+    }
+    
+    @Override
+    public long getLastFlushLatency() {
+        return writer.getLastFlushLatency();
+    }
+    
+    @Override
+    public void close() {
+        if (writer != null) {
+            writer.close();
+        }
+    }
+}
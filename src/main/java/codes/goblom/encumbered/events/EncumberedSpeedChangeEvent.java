@@ -17,19 +17,21 @@
 package codes.goblom.encumbered.events;
 
 import codes.goblom.encumbered.EncumberedPlayer;
+import codes.goblom.encumbered.EncumbranceState;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
-import lombok.RequiredArgsConstructor;
 import lombok.Setter;
 import org.bukkit.event.Event;
 import org.bukkit.event.HandlerList;
 
 /**
- *
+ * Called when encumbrance changes the walk and fly speed of a player. One 
+ * event carries both speeds and the state change. It is only called when 
+ * something actually changes, and not at all when no plugin listens for it.
+ * 
  * @author Bryan Larson
  */
 @AllArgsConstructor
-@RequiredArgsConstructor
 public class EncumberedSpeedChangeEvent extends Event {
 
     private static final HandlerList handlers = new HandlerList();
@@ -39,31 +41,66 @@ public class EncumberedSpeedChangeEvent extends Event {
         return handlers;
     }
     
-    public static enum SpeedType {
-        /**
-         * For the setFlySpeed
-         */
-        FLY,
-        /**
-         * for the setWalkSpeed
-         */
-        WALK,
-        /**
-         * Called when player is no longer over encumbered
-         */
-        RESET
+    public static HandlerList getHandlerList() {
+        return handlers;
+    }
+    
+    /**
+     * 
+     * @return true if any plugin listens for this event
+     */
+    public static boolean hasListeners() {
+        return handlers.getRegisteredListeners().length > 0;
     }
     
     @Getter
     private final EncumberedPlayer player;
     
-//    @Getter
-//    private final float fromSpeed;
+    /**
+     * {@link EncumbranceState#NORMAL} or {@link EncumbranceState#ENCUMBERED}
+     */
+    @Getter
+    private final EncumbranceState fromState;
+    
+    @Getter
+    private final EncumbranceState toState;
+    
+    /**
+     * Speed levels of the speed curve. 0 when not encumbered
+     */
+    @Getter
+    private final int fromLevel;
+    
+    @Getter
+    private final int toLevel;
+    
+    @Getter
+    private final float fromWalkSpeed;
+    
+    @Getter
+    private final float fromFlySpeed;
     
     @Getter
     @Setter
-    private float toSpeed;
+    private float toWalkSpeed;
     
     @Getter
-    private final SpeedType speedType;
+    @Setter
+    private float toFlySpeed;
+    
+    /**
+     * 
+     * @return true if the player just became encumbered
+     */
+    public boolean isEntering() {
+        return !fromState.isEncumbered() && toState.isEncumbered();
+    }
+    
+    /**
+     * 
+     * @return true if the player is no longer encumbered
+     */
+    public boolean isLeaving() {
+        return fromState.isEncumbered() && !toState.isEncumbered();
+    }
 }
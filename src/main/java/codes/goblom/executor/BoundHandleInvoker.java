@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2020 Bryan Larson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package codes.goblom.executor;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
+
+/**
+ * Calls a @CommandInfo method through a MethodHandle bound to its listener. 
+ * Used for methods a generated class cannot call directly.
+ * 
+ * @author Bryan Larson
+ */
+final class BoundHandleInvoker implements CommandInvoker {
+    
+    private final MethodHandle handle;
+    
+    BoundHandleInvoker(MethodHandle bound) {
+        this.handle = bound.asType(MethodType.methodType(void.class, CommandContext.class));
+    }
+    
+    @Override
+    public void invoke(CommandContext context) throws Throwable {
+        handle.invokeExact(context); // Statement form, so the call site type is (CommandContext)void
+    }
+}
@@ -19,6 +19,7 @@ package codes.goblom.executor;
 import com.google.common.collect.Lists;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
 import lombok.Getter;
 import org.bukkit.ChatColor;
@@ -122,6 +123,20 @@ public class CommandContext {
         tabComplete.add(ChatColor.stripColor(suggestion));
     }
     
+    /**
+     * Adds suggestions as they are, without stripping colors. Used for 
+     * completions that never contain colors, like names from a {@link PrefixTrie}.
+     * 
+     * @param suggestions The suggestions to add
+     */
+    public void suggestAll(Collection<String> suggestions) {
+        if (tabComplete == null) {
+            this.tabComplete = new ArrayList(suggestions.size());
+        }
+        
+        tabComplete.addAll(suggestions);
+    }
+    
     public void message(String... messages) {
 //        System.out.println("isTabExecutor = " + isTabExecutor());
         if (isTabExecutor()) {
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2020 Bryan Larson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package codes.goblom.executor;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Case-folded lookup of registered commands by name or alias. Names and 
+ * aliases are folded once at registration, so a lookup is a single hash map 
+ * access. Command names are also kept sorted for prefix lookups.
+ * 
+ * @author Bryan Larson
+ */
+class CommandIndex {
+    
+    private final Map<String, ExecMap> byLabel = new HashMap();
+    private final NavigableMap<String, ExecMap> byName = new TreeMap();
+    
+    static String fold(String label) {
+        return label.toLowerCase(Locale.ROOT);
+    }
+    
+    /**
+     * Adds all commands or none of them.
+     * 
+     * @param maps The commands to add
+     * @throws IllegalStateException if a name or alias is already taken
+     */
+    void addAll(Collection<ExecMap> maps) {
+        Map<String, ExecMap> added = new HashMap();
+        
+        for (ExecMap map : maps) {
+            CommandInfo info = map.getInfo();
+            
+            checkFree(fold(info.name()), map, added);
+            
+            for (String alias : info.alias()) {
+                checkFree(fold(alias), map, added);
+            }
+        }
+        
+        byLabel.putAll(added);
+        
+        for (ExecMap map : maps) {
+            byName.put(fold(map.getInfo().name()), map);
+        }
+    }
+    
+    private void checkFree(String label, ExecMap map, Map<String, ExecMap> added) {
+        ExecMap taken = byLabel.get(label);
+        
+        if (taken == null) {
+            taken = added.get(label);
+        }
+        
+        if (taken != null && taken != map) {
+            throw new IllegalStateException("Command '" + map.getInfo().name() + "' uses '" + label + "' which is already taken by '" + taken.getInfo().name() + "'");
+        }
+        
+        added.put(label, map);
+    }
+    
+    /**
+     * 
+     * @param label A command name or alias, in any case
+     * @return The command or null if none is registered under the label
+     */
+    ExecMap get(String label) {
+        return byLabel.get(fold(label));
+    }
+    
+    /**
+     * 
+     * @param prefix Start of a command name, in any case
+     * @return Commands whose name starts with the prefix, sorted by name
+     */
+    List<ExecMap> withPrefix(String prefix) {
+        String folded = fold(prefix);
+        
+        return new ArrayList(byName.subMap(folded, true, folded + Character.MAX_VALUE, true).values());
+    }
+}
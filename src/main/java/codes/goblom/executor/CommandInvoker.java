@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2020 Bryan Larson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package codes.goblom.executor;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaConversionException;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A @CommandInfo method bound to its listener. Exceptions thrown by the 
+ * command reach the caller as they were thrown, without being wrapped.
+ * 
+ * @author Bryan Larson
+ */
+@FunctionalInterface
+interface CommandInvoker {
+    
+    void invoke(CommandContext context) throws Throwable;
+    
+    /**
+     * Binds the method once. Public methods of public classes get a generated 
+     * class calling the method directly. Everything else is called through a 
+     * {@link BoundHandleInvoker}, Java 8 cannot generate classes inside other packages.
+     * 
+     * @param method The @CommandInfo method, already made accessible
+     * @param listener The listener declaring the method
+     * @return The invoker
+     * @throws IllegalStateException if the method does not take a single CommandContext
+     */
+    static CommandInvoker bind(Method method, CommandListener listener) {
+        if (method.getParameterCount() != 1 || method.getParameterTypes()[0] != CommandContext.class) {
+            throw new IllegalStateException("@CommandInfo method " + method.getName() + " must take a single CommandContext");
+        }
+        
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        MethodHandle handle;
+        
+        try {
+            handle = lookup.unreflect(method);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("Unable to access @CommandInfo method " + method.getName(), e);
+        }
+        
+        Class<?> owner = method.getDeclaringClass();
+        
+        if (Modifier.isPublic(owner.getModifiers()) && Modifier.isPublic(method.getModifiers()) && !Modifier.isStatic(method.getModifiers())) {
+            CallSite site = null;
+            
+            try {
+                site = LambdaMetafactory.metafactory(
+                        lookup, 
+                        "invoke", 
+                        MethodType.methodType(CommandInvoker.class, owner), 
+                        MethodType.methodType(void.class, CommandContext.class), 
+                        handle, 
+                        MethodType.methodType(void.class, CommandContext.class)
+                );
+            } catch (LambdaConversionException e) { 
+                Logger.getLogger(CommandInvoker.class.getName()).log(Level.FINE, "Calling @CommandInfo method " + method.getName() + " through a bound handle", e);
+            }
+            
+            if (site != null) {
+                try {
+                    return (CommandInvoker) site.getTarget().invoke(listener);
+                } catch (RuntimeException | Error e) {
+                    throw e;
+                } catch (Throwable e) {
+                    throw new IllegalStateException("Unable to bind @CommandInfo method " + method.getName(), e);
+                }
+            }
+        }
+        
+        return new BoundHandleInvoker(Modifier.isStatic(method.getModifiers()) ? handle : handle.bindTo(listener));
+    }
+}
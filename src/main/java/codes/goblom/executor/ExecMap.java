@@ -29,4 +29,5 @@ class ExecMap {
     @Getter private final Method method;
     @Getter private final CommandInfo info;
     @Getter private final CommandListener listener;
+    @Getter private final CommandInvoker invoker;
 }
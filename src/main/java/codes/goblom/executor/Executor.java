@@ -19,6 +19,7 @@ package codes.goblom.executor;
 import com.google.common.collect.Lists;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import lombok.Setter;
 import org.bukkit.Bukkit;
@@ -36,6 +37,8 @@ import org.bukkit.plugin.Plugin;
 public abstract class Executor implements TabExecutor {
 
     private final List<ExecMap> execMap = new ArrayList();
+    private final CommandIndex index = new CommandIndex();
+    private List<CommandInfo> registered = Collections.emptyList();
     
     @Setter
     private String noPermissionMessage;
@@ -51,10 +54,29 @@ public abstract class Executor implements TabExecutor {
     }
 
     public final List<CommandInfo> getRegisteredCommands() {
-        return Lists.transform(execMap, ExecMap::getInfo);
+        return registered;
     }
     
+    /**
+     * 
+     * @param label A command name or alias, in any case
+     * @return The command or null if none is registered under the label
+     */
+    public final CommandInfo getCommand(String label) {
+        ExecMap map = index.get(label);
+        
+        return map == null ? null : map.getInfo();
+    }
+    
+    /**
+     * Registers every @CommandInfo method of the listener.
+     * 
+     * @param exec The listener
+     * @throws IllegalStateException if a name or alias is already used by another command, 
+     *                               or a method does not take a single CommandContext
+     */
     public final void addExecutor(CommandListener exec) {
+        List<ExecMap> found = new ArrayList();
         Class<?> clazz = exec.getClass();
         
         while (clazz != null) {
@@ -62,7 +84,7 @@ public abstract class Executor implements TabExecutor {
                 if (m.isAnnotationPresent(CommandInfo.class)) {
                     CommandInfo info = m.getAnnotation(CommandInfo.class);
                     m.setAccessible(true);
-                    execMap.add(new ExecMap(m, info, exec));
+                    found.add(new ExecMap(m, info, exec, CommandInvoker.bind(m, exec)));
                     
 //                    plugin.getLogger().info("Executor found method[" + m.getName() + "] with command of [" + info.name() + "] in [" + clazz.toString() + "]");
                 }
@@ -70,6 +92,10 @@ public abstract class Executor implements TabExecutor {
             
             clazz = clazz.getSuperclass();
         }
+        
+        index.addAll(found);
+        execMap.addAll(found);
+        this.registered = Collections.unmodifiableList(new ArrayList(Lists.transform(execMap, ExecMap::getInfo)));
     }
 
     @Override
@@ -92,25 +118,7 @@ public abstract class Executor implements TabExecutor {
             return true;
         }
         
-        ExecMap found = null;
-        
-        for (ExecMap map : execMap) {
-            CommandInfo info = map.getInfo();
-            
-            if (info.name().equalsIgnoreCase(cmd)) {
-                found = map;
-                break;
-            } else {
-                if (info.alias().length != 0) {
-                    for (String alias : info.alias()) {
-                        if (alias.equalsIgnoreCase(cmd)) {
-                            found = map;
-                            break;
-                        }
-                    }
-                }
-            }
-        }
+        ExecMap found = index.get(cmd);
         
         if (found == null) {
             sendHelp(new CommandContext(this, sender, args));
@@ -129,7 +137,7 @@ public abstract class Executor implements TabExecutor {
         
         Runnable r = () -> {
             try {
-                ffound.getMethod().invoke(ffound.getListener(), context);
+                ffound.getInvoker().invoke(context);
             } catch (Throwable e) { //Use generic Throwable because a command may throw a different error
                 onError(sender, e);
             }
@@ -151,25 +159,7 @@ public abstract class Executor implements TabExecutor {
         ExecMap found = null;
         
         try {
-            String cmd = ChatColor.stripColor(args[0]);
-            
-            for (ExecMap map : execMap) {
-                CommandInfo info = map.getInfo();
-
-                if (info.name().equalsIgnoreCase(cmd)) {
-                    found = map;
-                    break;
-                } else {
-                    if (info.alias().length != 0) {
-                        for (String a : info.alias()) {
-                            if (a.equalsIgnoreCase(cmd)) {
-                                found = map;
-                                break;
-                            }
-                        }
-                    }
-                }
-            }
+            found = index.get(ChatColor.stripColor(args[0]));
         } catch (Exception e) { }
         
         if (found == null) {
@@ -182,16 +172,13 @@ public abstract class Executor implements TabExecutor {
                 return Lists.transform(suggest, ChatColor::stripColor);
             }
             
-            execMap.stream().filter((map) -> !(!sender.hasPermission(map.getInfo().permission()))).forEachOrdered((map) -> {
-                String name = map.getInfo().name();
-                try {
-                    String cmd = args[0];
-                    
-                    if (name.startsWith(cmd) || name.endsWith(cmd)) {
-                        suggest.add(name);
+            if (args.length == 1) {
+                for (ExecMap map : index.withPrefix(ChatColor.stripColor(args[0]))) {
+                    if (sender.hasPermission(map.getInfo().permission())) {
+                        suggest.add(map.getInfo().name());
                     }
-                } catch (Exception e) { }
-            });
+                }
+            }
 
             return Lists.transform(suggest, ChatColor::stripColor);
         }
@@ -212,8 +199,8 @@ public abstract class Executor implements TabExecutor {
         final ExecMap ffound = found;
         
         try {
-            ffound.getMethod().invoke(ffound.getListener(), context);
-        } catch (Exception e) { //Use generic Exception because a command may throw a different error
+            ffound.getInvoker().invoke(context);
+        } catch (Throwable e) { //Use generic Throwable because a command may throw a different error
             onError(sender, e);
         }
         
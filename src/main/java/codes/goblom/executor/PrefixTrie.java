@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2020 Bryan Larson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package codes.goblom.executor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Case-insensitive prefix index for tab completion. Completions come back in 
+ * alphabetical order and are capped, only the matching branch of the trie is 
+ * visited so a lookup never scans every entry.
+ * 
+ * Keys are matched case-insensitively but returned as they were added.
+ * 
+ * @author Bryan Larson
+ */
+public class PrefixTrie {
+    
+    private static final Node[] NO_CHILDREN = new Node[0];
+    
+    private final Node root = new Node('\0');
+    private int size = 0;
+    
+    public PrefixTrie() { }
+    
+    public PrefixTrie(Iterable<String> keys) {
+        keys.forEach(this::add);
+    }
+    
+    /**
+     * 
+     * @param key The key to add
+     * @return false if the key was already present
+     */
+    public synchronized boolean add(String key) {
+        Node node = root;
+        
+        for (char c : fold(key).toCharArray()) {
+            node = node.child(c, true);
+        }
+        
+        boolean added = node.value == null;
+        node.value = key;
+        
+        if (added) {
+            size++;
+        }
+        
+        return added;
+    }
+    
+    /**
+     * 
+     * @param key The key to remove, in any case
+     * @return false if the key was not present
+     */
+    public synchronized boolean remove(String key) {
+        String folded = fold(key);
+        Node[] path = new Node[folded.length() + 1];
+        path[0] = root;
+        
+        for (int i = 0; i < folded.length(); i++) {
+            path[i + 1] = path[i].child(folded.charAt(i), false);
+            
+            if (path[i + 1] == null) return false;
+        }
+        
+        Node node = path[folded.length()];
+        
+        if (node.value == null) return false;
+        
+        node.value = null;
+        size--;
+        
+        // Prune branches that no longer lead to a key
+        for (int i = folded.length(); i > 0 && path[i].value == null && path[i].children.length == 0; i--) {
+            path[i - 1].removeChild(path[i].c);
+        }
+        
+        return true;
+    }
+    
+    public synchronized boolean contains(String key) {
+        Node node = find(fold(key));
+        
+        return node != null && node.value != null;
+    }
+    
+    public synchronized int size() {
+        return size;
+    }
+    
+    /**
+     * 
+     * @param prefix Start of the keys to find, in any case
+     * @param limit The most keys to return
+     * @return Up to limit keys starting with the prefix, sorted alphabetically
+     */
+    public synchronized List<String> complete(String prefix, int limit) {
+        Node node = find(fold(prefix == null ? "" : prefix));
+        
+        if (node == null || limit <= 0) return Collections.emptyList();
+        
+        List<String> found = new ArrayList(Math.min(limit, size));
+        collect(node, found, limit);
+        
+        return found;
+    }
+    
+    private static void collect(Node node, List<String> found, int limit) {
+        if (node.value != null) {
+            found.add(node.value);
+        }
+        
+        for (Node child : node.children) {
+            if (found.size() >= limit) return;
+            
+            collect(child, found, limit);
+        }
+    }
+    
+    private Node find(String folded) {
+        Node node = root;
+        
+        for (int i = 0; i < folded.length() && node != null; i++) {
+            node = node.child(folded.charAt(i), false);
+        }
+        
+        return node;
+    }
+    
+    private static String fold(String key) {
+        return key.toLowerCase(Locale.ROOT);
+    }
+    
+    private static final class Node {
+        
+        private final char c;
+        private String value;
+        
+        /**
+         * Sorted by character
+         */
+        private Node[] children = NO_CHILDREN;
+        
+        Node(char c) {
+            this.c = c;
+        }
+        
+        Node child(char c, boolean create) {
+            int index = indexOf(c);
+            
+            if (index >= 0) return children[index];
+            if (!create) return null;
+            
+            int insert = -(index + 1);
+            Node child = new Node(c);
+            Node[] grown = new Node[children.length + 1];
+            
+            System.arraycopy(children, 0, grown, 0, insert);
+            System.arraycopy(children, insert, grown, insert + 1, children.length - insert);
+            grown[insert] = child;
+            
+            this.children = grown;
+            return child;
+        }
+        
+        void removeChild(char c) {
+            int index = indexOf(c);
+            
+            if (index < 0) return;
+            
+            Node[] shrunk = new Node[children.length - 1];
+            
+            System.arraycopy(children, 0, shrunk, 0, index);
+            System.arraycopy(children, index + 1, shrunk, index, children.length - index - 1);
+            
+            this.children = shrunk.length == 0 ? NO_CHILDREN : shrunk;
+        }
+        
+        private int indexOf(char c) {
+            int low = 0;
+            int high = children.length - 1;
+            
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                char other = children[mid].c;
+                
+                if (other < c) {
+                    low = mid + 1;
+                } else if (other > c) {
+                    high = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            
+            return -(low + 1);
+        }
+    }
+}
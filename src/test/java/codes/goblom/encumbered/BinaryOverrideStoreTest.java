@@ -0,0 +1,241 @@
+/*
+ * Copyright (C) 2020 Bryan Larson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package codes.goblom.encumbered;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Round trips through overrides.dat and overrides.log of {@link BinaryOverrideStore}.
+ * 
+ * @author Bryan Larson
+ */
+public class BinaryOverrideStoreTest {
+    
+    private static final double DELTA = 0.0;
+    
+    /**
+     * More new overrides than the log holds before a load compacts it
+     */
+    private static final int PAST_COMPACTION = 5000;
+    
+    private Path folder;
+    private File dataFile;
+    private File logFile;
+    
+    @Before
+    public void setUp() throws IOException {
+        this.folder = Files.createTempDirectory("encumbered");
+        this.dataFile = folder.resolve("overrides.dat").toFile();
+        this.logFile = folder.resolve("overrides.log").toFile();
+    }
+    
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(folder)) {
+            files.sorted(Comparator.reverseOrder()).forEach((path) -> path.toFile().delete());
+        }
+    }
+    
+    private BinaryOverrideStore open(boolean readOnly) throws IOException {
+        BinaryOverrideStore store = new BinaryOverrideStore(dataFile, logFile, readOnly, Logger.getGlobal());
+        store.load();
+        
+        return store;
+    }
+    
+    @Test
+    public void roundTrip() throws IOException {
+        Map<UUID, Double> expected = new HashMap();
+        Random random = new Random(42);
+        BinaryOverrideStore store = open(false);
+        
+        for (int i = 0; i < 100; i++) {
+            UUID id = new UUID(random.nextLong(), random.nextLong());
+            double weight = random.nextInt(1000) / 10.0;
+            
+            store.set(id, weight);
+            expected.put(id, weight);
+        }
+        
+        store.close();
+        
+        BinaryOverrideStore reopened = open(false);
+        assertEquals(expected.size(), reopened.size());
+        
+        for (Map.Entry<UUID, Double> entry : expected.entrySet()) {
+            assertEquals(entry.getValue(), reopened.get(entry.getKey(), -1), DELTA);
+        }
+        
+        assertFalse(reopened.contains(new UUID(0, 0)));
+        assertEquals(-1, reopened.get(new UUID(0, 0), -1), DELTA);
+        reopened.close();
+    }
+    
+    @Test
+    public void existingOverridesAreUpdatedInPlace() throws IOException {
+        UUID id = UUID.randomUUID();
+        BinaryOverrideStore store = open(false);
+        
+        store.set(id, 10);
+        store.close();
+        
+        store = open(false);
+        store.set(id, 20);
+        
+        assertEquals(0, store.getPendingWrites());
+        assertEquals(20, store.get(id, -1), DELTA);
+        store.close();
+        
+        store = open(true);
+        assertEquals(1, store.size());
+        assertEquals(20, store.get(id, -1), DELTA);
+        store.close();
+    }
+    
+    @Test
+    public void logIsReplayedWhenNotCompacted() throws IOException {
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+        BinaryOverrideStore store = open(false);
+        
+        store.set(first, 1);
+        store.set(second, 2);
+        store.set(first, 3);
+        
+        // As if the server stopped before the store was closed
+        BinaryOverrideStore replayed = open(true);
+        
+        assertEquals(2, replayed.size());
+        assertEquals(3, replayed.get(first, -1), DELTA);
+        assertEquals(2, replayed.get(second, -1), DELTA);
+        replayed.close();
+        store.close();
+    }
+    
+    @Test
+    public void writesNeverCompact() throws IOException {
+        BinaryOverrideStore store = open(false);
+        
+        for (int i = 0; i < PAST_COMPACTION; i++) {
+            store.set(new UUID(1, i), i);
+        }
+        
+        assertEquals(PAST_COMPACTION, store.getPendingWrites());
+        assertEquals(PAST_COMPACTION * 24L, logFile.length());
+        assertEquals(PAST_COMPACTION, store.size());
+        
+        for (int i = 0; i < PAST_COMPACTION; i++) {
+            assertEquals(i, store.get(new UUID(1, i), -1), DELTA);
+        }
+        
+        store.close();
+        assertEquals(0, logFile.length());
+        
+        BinaryOverrideStore reopened = open(true);
+        assertEquals(PAST_COMPACTION, reopened.size());
+        
+        for (int i = 0; i < PAST_COMPACTION; i++) {
+            assertEquals(i, reopened.get(new UUID(1, i), -1), DELTA);
+        }
+        
+        reopened.close();
+    }
+    
+    @Test
+    public void longLogIsCompactedOnLoad() throws IOException {
+        BinaryOverrideStore store = open(false);
+        
+        for (int i = 0; i < PAST_COMPACTION; i++) {
+            store.set(new UUID(2, i), i);
+        }
+        
+        // Not closed, as if the server stopped
+        BinaryOverrideStore reopened = open(false);
+        
+        assertEquals(0, reopened.getPendingWrites());
+        assertEquals(0, logFile.length());
+        assertEquals(PAST_COMPACTION, reopened.size());
+        assertEquals(PAST_COMPACTION - 1, reopened.get(new UUID(2, PAST_COMPACTION - 1), -1), DELTA);
+        reopened.close();
+        store.close();
+    }
+    
+    @Test
+    public void partialRecordIsDroppedBeforeAppending() throws IOException {
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+        UUID third = UUID.randomUUID();
+        
+        open(false).close();
+        
+        // Two whole records and the first 10 bytes of a third, as left by a crash
+        ByteBuffer log = ByteBuffer.allocate(24 * 2 + 10);
+        log.putLong(first.getMostSignificantBits()).putLong(first.getLeastSignificantBits()).putDouble(1);
+        log.putLong(second.getMostSignificantBits()).putLong(second.getLeastSignificantBits()).putDouble(2);
+        log.putLong(third.getMostSignificantBits()).putShort((short) 7);
+        Files.write(logFile.toPath(), log.array(), StandardOpenOption.TRUNCATE_EXISTING);
+        
+        BinaryOverrideStore store = open(false);
+        
+        assertEquals(2, store.size());
+        assertEquals(48, logFile.length());
+        
+        store.set(third, 3);
+        
+        // Read the log as a crash would leave it, without the compaction of close()
+        BinaryOverrideStore replayed = open(true);
+        
+        assertEquals(3, replayed.size());
+        assertEquals(1, replayed.get(first, -1), DELTA);
+        assertEquals(2, replayed.get(second, -1), DELTA);
+        assertEquals(3, replayed.get(third, -1), DELTA);
+        replayed.close();
+        store.close();
+    }
+    
+    @Test(expected = UnsupportedOperationException.class)
+    public void readOnlyStoreRefusesWrites() throws IOException {
+        open(false).close();
+        
+        BinaryOverrideStore store = open(true);
+        
+        try {
+            store.set(UUID.randomUUID(), 1);
+        } finally {
+            store.close();
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2020 Bryan Larson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package codes.goblom.encumbered;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.UUID;
+import org.bukkit.Material;
+import org.bukkit.inventory.ItemStack;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * The weight ledger of {@link EncumberedPlayer}, synced on the main thread 
+ * while snapshots of it are weighed by the sweep.
+ * 
+ * @author Bryan Larson
+ */
+public class EncumberedPlayerTest {
+    
+    private static final double DELTA = 0.0001;
+    
+    private ItemStack[] contents;
+    private InventorySource source;
+    private EncumberedPlayer ep;
+    
+    @Before
+    public void setUp() {
+        TestServer.install();
+        
+        Map<Material, Double> weights = new EnumMap(Material.class);
+        weights.put(Material.STONE, 1.0);
+        weights.put(Material.DIRT, 2.0);
+        
+        Encumbered.CONFIG.set(EncumberedConfig.DEFAULT.withWeightTable(WeightTable.compile(weights)));
+        Encumbered.invalidateCaches();
+        Encumbered.itemCache = null;
+        
+        this.contents = new ItemStack[41];
+        this.source = InventorySource.of(contents);
+        this.ep = new EncumberedPlayer(UUID.randomUUID());
+        
+        contents[0] = new ItemStack(Material.STONE, 10);
+        ep.rescan(source);
+    }
+    
+    @After
+    public void tearDown() {
+        Encumbered.CONFIG.set(EncumberedConfig.DEFAULT);
+        Encumbered.invalidateCaches();
+    }
+    
+    @Test
+    public void rescanWeighsEverySlot() {
+        contents[5] = new ItemStack(Material.DIRT, 3);
+        
+        assertEquals(16, ep.rescan(source), DELTA);
+    }
+    
+    @Test
+    public void syncReweighsDirtySlots() {
+        contents[0] = new ItemStack(Material.DIRT, 10);
+        contents[1] = new ItemStack(Material.STONE, 4);
+        
+        // Unmarked slots keep their ledger weight until the next rescan
+        ep.markSlotDirty(0);
+        assertEquals(20, ep.syncLedger(source), DELTA);
+        
+        ep.markSlotDirty(1);
+        assertEquals(24, ep.syncLedger(source), DELTA);
+    }
+    
+    @Test
+    public void snapshotWeightsAreApplied() {
+        contents[3] = new ItemStack(Material.DIRT, 5);
+        ep.markSlotDirty(3);
+        
+        InventorySnapshot snapshot = InventorySnapshot.capture(ep, source);
+        snapshot.compute();
+        ep.applyWeights(snapshot.slots, snapshot.weights, snapshot.stamp);
+        
+        assertEquals(20, snapshot.carriedWeight, DELTA);
+        assertEquals(20, ep.getCarriedWeight(), DELTA);
+    }
+    
+    @Test
+    public void syncAfterCaptureWins() {
+        contents[3] = new ItemStack(Material.DIRT, 5);
+        ep.markSlotDirty(3);
+        
+        InventorySnapshot snapshot = InventorySnapshot.capture(ep, source);
+        
+        // The main thread syncs the same slot while the snapshot is weighed
+        contents[3] = new ItemStack(Material.STONE, 1);
+        ep.markSlotDirty(3);
+        assertEquals(11, ep.syncLedger(source), DELTA);
+        
+        snapshot.compute();
+        ep.applyWeights(snapshot.slots, snapshot.weights, snapshot.stamp);
+        
+        assertEquals(11, ep.getCarriedWeight(), DELTA);
+    }
+    
+    @Test
+    public void dirtyAfterCaptureIsNotOverwritten() {
+        contents[3] = new ItemStack(Material.DIRT, 5);
+        ep.markSlotDirty(3);
+        
+        InventorySnapshot snapshot = InventorySnapshot.capture(ep, source);
+        
+        contents[3] = null;
+        ep.markSlotDirty(3);
+        
+        snapshot.compute();
+        ep.applyWeights(snapshot.slots, snapshot.weights, snapshot.stamp);
+        
+        assertEquals(10, ep.syncLedger(source), DELTA);
+    }
+    
+    @Test
+    public void rescanAfterCaptureWins() {
+        contents[3] = new ItemStack(Material.DIRT, 5);
+        ep.markSlotDirty(3);
+        
+        InventorySnapshot snapshot = InventorySnapshot.capture(ep, source);
+        
+        contents[3] = new ItemStack(Material.DIRT, 1);
+        ep.rescan(source);
+        
+        snapshot.compute();
+        ep.applyWeights(snapshot.slots, snapshot.weights, snapshot.stamp);
+        
+        assertEquals(12, ep.getCarriedWeight(), DELTA);
+    }
+}
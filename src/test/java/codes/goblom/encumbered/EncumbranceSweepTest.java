@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2020 Bryan Larson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package codes.goblom.encumbered;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import org.bukkit.Material;
+import org.bukkit.configuration.MemoryConfiguration;
+import org.bukkit.entity.Player;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.meta.ItemMeta;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The hand off between the main thread and the workers of {@link EncumbranceSweep}. 
+ * Workers and the main thread are both the scheduler of {@link TestServer}, so a 
+ * sweep computes and applies only when the test runs its tasks.
+ * 
+ * @author Bryan Larson
+ */
+public class EncumbranceSweepTest {
+    
+    private static final double DELTA = 0.0001;
+    
+    private final List<LogRecord> logged = new ArrayList();
+    
+    private EncumbranceSweep sweep;
+    private ItemStack[] contents;
+    private Player player;
+    private EncumberedPlayer ep;
+    
+    @Before
+    public void setUp() {
+        TestServer.install();
+        TestServer.clearTasks();
+        
+        setConfig(false);
+        Encumbered.itemCache = null;
+        
+        Logger logger = Logger.getAnonymousLogger();
+        logger.setUseParentHandlers(false);
+        logger.addHandler(new Handler() {
+            @Override
+            public void publish(LogRecord record) {
+                logged.add(record);
+            }
+            
+            @Override
+            public void flush() { }
+            
+            @Override
+            public void close() { }
+        });
+        
+        this.sweep = new EncumbranceSweep(null, logger);
+        this.contents = new ItemStack[41];
+        this.player = TestServer.join("Sweeper", contents);
+        this.ep = Encumbered.getPlayer(player.getUniqueId());
+    }
+    
+    @After
+    public void tearDown() {
+        Encumbered.PLAYERS.clear();
+        TestServer.clearPlayers();
+        TestServer.clearTasks();
+        
+        Encumbered.CONFIG.set(EncumberedConfig.DEFAULT);
+        Encumbered.invalidateCaches();
+    }
+    
+    private static void setConfig(boolean customWeights) {
+        Map<Material, Double> weights = new EnumMap(Material.class);
+        weights.put(Material.STONE, 1.0);
+        
+        MemoryConfiguration config = new MemoryConfiguration();
+        config.set("Item Weights.Custom Weight", customWeights);
+        
+        Encumbered.CONFIG.set(EncumberedConfig.load(config, new MemoryConfiguration(), Logger.getGlobal()).withWeightTable(WeightTable.compile(weights)));
+        Encumbered.invalidateCaches();
+    }
+    
+    /**
+     * Fills the inventory with far more than the default max carry weight
+     */
+    private void overload() {
+        for (int i = 0; i < 36; i++) {
+            contents[i] = new ItemStack(Material.STONE, 64);
+        }
+        
+        ep.markAllDirty();
+    }
+    
+    @Test
+    public void playersBeingComputedAreQueuedAgain() {
+        contents[0] = new ItemStack(Material.STONE, 10);
+        ep.queueEvaluation(sweep);
+        
+        // Taken from the dirty queue, then found again by the pass over everyone
+        sweep.run();
+        
+        assertEquals(1, sweep.getEvaluatedLastTick());
+        assertTrue(ep.evaluating);
+        assertEquals(1, sweep.getBacklog());
+        
+        // Still computing, queued again without a second snapshot
+        sweep.run();
+        
+        assertEquals(0, sweep.getEvaluatedLastTick());
+        assertEquals(1, sweep.getBacklog());
+        
+        TestServer.runTasks();
+        
+        assertFalse(ep.evaluating);
+        assertEquals(10, ep.getCarriedWeight(), DELTA);
+        
+        sweep.run();
+        
+        assertEquals(1, sweep.getEvaluatedLastTick());
+        assertEquals(0, sweep.getBacklog());
+        
+        TestServer.runTasks();
+        assertTrue(logged.isEmpty());
+    }
+    
+    @Test
+    public void failedComputesReleaseThePlayers() {
+        setConfig(true);
+        
+        // Weighing this item off the main thread fails
+        ItemStack broken = new ItemStack(Material.STONE);
+        broken.setItemMeta((ItemMeta) Proxy.newProxyInstance(EncumbranceSweepTest.class.getClassLoader(), new Class<?>[] { ItemMeta.class }, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "clone":
+                    return proxy;
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                default:
+                    throw new IllegalStateException("Broken meta");
+            }
+        }));
+        
+        contents[0] = broken;
+        ep.markAllDirty();
+        ep.queueEvaluation(sweep);
+        
+        sweep.run();
+        assertTrue(ep.evaluating);
+        
+        TestServer.runTasks();
+        
+        assertFalse(ep.evaluating);
+        assertEquals(1, logged.size());
+        assertEquals(Level.WARNING, logged.get(0).getLevel());
+        
+        // Evaluated again on the next tick
+        contents[0] = new ItemStack(Material.STONE, 5);
+        ep.markAllDirty();
+        ep.queueEvaluation(sweep);
+        
+        sweep.run();
+        assertEquals(1, sweep.getEvaluatedLastTick());
+        
+        TestServer.runTasks();
+        assertEquals(5, ep.getCarriedWeight(), DELTA);
+    }
+    
+    @Test
+    public void playersQuittingDuringAComputeAreSkipped() {
+        overload();
+        ep.queueEvaluation(sweep);
+        
+        sweep.run();
+        assertTrue(ep.evaluating);
+        
+        TestServer.quit(player);
+        TestServer.runTasks();
+        
+        assertFalse(ep.evaluating);
+        assertFalse(ep.isEncumbered());
+        assertEquals(0, ep.getSpeedLevel());
+        assertEquals(0, ep.getCarriedWeight(), DELTA);
+        assertTrue(logged.isEmpty());
+    }
+}
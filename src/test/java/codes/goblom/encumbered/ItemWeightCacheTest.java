@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2020 Bryan Larson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package codes.goblom.encumbered;
+
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+import org.bukkit.Material;
+import org.bukkit.configuration.MemoryConfiguration;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.meta.BundleMeta;
+import org.bukkit.inventory.meta.ItemMeta;
+import org.bukkit.persistence.PersistentDataContainer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Cached weights of bundles through {@link Encumbered#calculateWeight(ItemStack)} 
+ * and the {@link ItemWeightCache}.
+ * 
+ * @author Bryan Larson
+ */
+public class ItemWeightCacheTest {
+    
+    private static final double DELTA = 0.0001;
+    
+    private ItemWeightCache cache;
+    
+    @Before
+    public void setUp() {
+        TestServer.install();
+        
+        setWeights(1.0, false);
+        
+        this.cache = new ItemWeightCache(16);
+        Encumbered.itemCache = cache;
+    }
+    
+    @After
+    public void tearDown() {
+        Encumbered.CONFIG.set(EncumberedConfig.DEFAULT);
+        Encumbered.invalidateCaches();
+        Encumbered.itemCache = null;
+    }
+    
+    private static void setWeights(double stone, boolean customWeights) {
+        Map<Material, Double> weights = new EnumMap(Material.class);
+        weights.put(Material.STONE, stone);
+        weights.put(Material.BUNDLE, 2.0);
+        
+        MemoryConfiguration config = new MemoryConfiguration();
+        config.set("Item Weights.Custom Weight", customWeights);
+        
+        Encumbered.CONFIG.set(EncumberedConfig.load(config, new MemoryConfiguration(), Logger.getGlobal()).withWeightTable(WeightTable.compile(weights)));
+        Encumbered.invalidateCaches();
+    }
+    
+    /**
+     * A bundle holding the items. Its meta is its own clone, like the stand-ins 
+     * of the benchmarks, so every copy of it is equal.
+     */
+    private static ItemStack bundle(ItemStack... items) {
+        List<ItemStack> contents = Arrays.asList(items);
+        ItemStack stack = new ItemStack(Material.BUNDLE);
+        
+        stack.setItemMeta(meta(BundleMeta.class, (name) -> {
+            switch (name) {
+                case "hasItems":
+                    return !contents.isEmpty();
+                case "getItems":
+                    return contents;
+                default:
+                    return null;
+            }
+        }));
+        
+        return stack;
+    }
+    
+    @SuppressWarnings("unchecked")
+    private static <T extends ItemMeta> T meta(Class<T> type, Answer answer) {
+        PersistentDataContainer data = (PersistentDataContainer) Proxy.newProxyInstance(ItemWeightCacheTest.class.getClassLoader(), new Class<?>[] { PersistentDataContainer.class }, 
+                (proxy, method, args) -> method.getName().equals("has") ? false : null);
+        
+        return (T) Proxy.newProxyInstance(ItemWeightCacheTest.class.getClassLoader(), new Class<?>[] { type }, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "clone":
+                    return proxy;
+                case "getPersistentDataContainer":
+                    return data;
+                case "hasEnchants":
+                    return false;
+                default:
+                    return answer.answer(method.getName());
+            }
+        });
+    }
+    
+    @Test
+    public void bundlesAreWeighedOnce() {
+        ItemStack bundle = bundle(new ItemStack(Material.STONE, 10));
+        
+        assertEquals(12, Encumbered.calculateWeight(bundle), DELTA);
+        assertEquals(12, Encumbered.calculateWeight(bundle), DELTA);
+        
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.size());
+    }
+    
+    @Test
+    public void weightChangesClearTheCache() {
+        ItemStack bundle = bundle(new ItemStack(Material.STONE, 10));
+        
+        assertEquals(12, Encumbered.calculateWeight(bundle), DELTA);
+        
+        setWeights(3.0, false);
+        
+        assertEquals(0, cache.size());
+        assertEquals(32, Encumbered.calculateWeight(bundle), DELTA);
+        assertEquals(2, cache.getMisses());
+    }
+    
+    @Test
+    public void onlyContainersAreCached() {
+        setWeights(1.0, true);
+        
+        ItemStack stone = new ItemStack(Material.STONE, 10);
+        stone.setItemMeta(meta(ItemMeta.class, (name) -> null));
+        
+        assertEquals(10, Encumbered.calculateWeight(stone), DELTA);
+        assertEquals(10, Encumbered.calculateWeight(stone), DELTA);
+        
+        assertEquals(0, cache.getHits() + cache.getMisses());
+        assertEquals(0, cache.size());
+    }
+    
+    @Test
+    public void leastRecentlyUsedItemsAreEvicted() {
+        this.cache = new ItemWeightCache(1);
+        Encumbered.itemCache = cache;
+        
+        Encumbered.calculateWeight(bundle(new ItemStack(Material.STONE, 1)));
+        Encumbered.calculateWeight(bundle(new ItemStack(Material.STONE, 2)));
+        
+        assertEquals(1, cache.size());
+        assertEquals(1, cache.getEvictions());
+    }
+    
+    private interface Answer {
+        
+        Object answer(String method);
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2020 Bryan Larson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package codes.goblom.encumbered;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Bucketing and percentiles of {@link LatencyHistogram}.
+ * 
+ * @author Bryan Larson
+ */
+public class LatencyHistogramTest {
+    
+    @Test
+    public void emptyHistogram() {
+        LatencyHistogram histogram = new LatencyHistogram("Test");
+        
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentile(0.99));
+        assertEquals(0, histogram.getMean(), 0);
+    }
+    
+    @Test
+    public void smallValuesAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram("Test");
+        
+        histogram.record(1);
+        histogram.record(2);
+        histogram.record(3);
+        
+        assertEquals(1, histogram.getPercentile(0.1));
+        assertEquals(2, histogram.getPercentile(0.5));
+        assertEquals(3, histogram.getPercentile(1));
+        assertEquals(2, histogram.getMean(), 0);
+    }
+    
+    @Test
+    public void percentilesAreUpperBoundsWithinABucket() {
+        LatencyHistogram histogram = new LatencyHistogram("Test");
+        
+        for (long nanos = 1; nanos <= 100_000; nanos++) {
+            histogram.record(nanos);
+        }
+        
+        assertEquals(100_000, histogram.getCount());
+        assertEquals(100_000, histogram.getMax());
+        assertEquals(50_000.5, histogram.getMean(), 0.001);
+        
+        // Four buckets per power of two, so a bucket is at most 25% wide
+        assertBetween(50_000, 62_500, histogram.getPercentile(0.5));
+        assertBetween(90_000, 112_500, histogram.getPercentile(0.9));
+        assertBetween(99_000, 100_000, histogram.getPercentile(0.99));
+    }
+    
+    @Test
+    public void percentilesNeverExceedMax() {
+        LatencyHistogram histogram = new LatencyHistogram("Test");
+        
+        histogram.record(1_000_001);
+        
+        assertEquals(1_000_001, histogram.getPercentile(0.5));
+        assertEquals(1_000_001, histogram.getPercentile(1));
+    }
+    
+    @Test
+    public void negativeLatenciesAreIgnored() {
+        LatencyHistogram histogram = new LatencyHistogram("Test");
+        
+        histogram.record(-5);
+        
+        assertEquals(0, histogram.getCount());
+    }
+    
+    @Test
+    public void nothingIsRecordedWhileStatsAreDisabled() {
+        LatencyHistogram histogram = new LatencyHistogram("Test");
+        
+        PluginStats.enabled = false;
+        
+        try {
+            histogram.record(100);
+        } finally {
+            PluginStats.enabled = true;
+        }
+        
+        assertEquals(0, histogram.getCount());
+    }
+    
+    @Test
+    public void resetClearsEverything() {
+        LatencyHistogram histogram = new LatencyHistogram("Test");
+        
+        histogram.record(100);
+        histogram.record(10_000);
+        histogram.reset();
+        
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getPercentile(0.5));
+    }
+    
+    private static void assertBetween(long min, long max, long actual) {
+        assertTrue(actual + " is not between " + min + " and " + max, actual >= min && actual <= max);
+    }
+}
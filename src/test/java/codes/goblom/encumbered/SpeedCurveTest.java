@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2020 Bryan Larson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package codes.goblom.encumbered;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import org.bukkit.configuration.MemoryConfiguration;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Levels, speeds and margins of the {@link SpeedCurve}.
+ * 
+ * @author Bryan Larson
+ */
+public class SpeedCurveTest {
+    
+    private static final float DELTA = 0.0001F;
+    
+    private final List<String> warnings = new ArrayList();
+    private Logger logger;
+    private MemoryConfiguration config;
+    
+    @Before
+    public void setUp() {
+        this.logger = Logger.getAnonymousLogger();
+        logger.setUseParentHandlers(false);
+        logger.addHandler(new Handler() {
+            @Override
+            public void publish(LogRecord record) {
+                warnings.add(record.getMessage());
+            }
+            
+            @Override
+            public void flush() { }
+            
+            @Override
+            public void close() { }
+        });
+        
+        this.config = new MemoryConfiguration();
+        config.set("Over Encumbered.Walk Speed", 0.1);
+        config.set("Over Encumbered.Fly Speed", 0.05);
+    }
+    
+    private void tier(int percent, double walkSpeed, double flySpeed) {
+        config.set("Over Encumbered.Tiers." + percent + ".Walk Speed", walkSpeed);
+        config.set("Over Encumbered.Tiers." + percent + ".Fly Speed", flySpeed);
+    }
+    
+    private SpeedCurve load(double enterMargin, double leaveMargin) {
+        return SpeedCurve.load(config, enterMargin, leaveMargin, logger);
+    }
+    
+    @Test
+    public void singleTierAtMaxCarryWeight() {
+        SpeedCurve curve = load(0, 0);
+        
+        assertEquals(2, curve.getLevels());
+        assertEquals(0, curve.getLevel(0));
+        assertEquals(0, curve.getLevel(0.99));
+        assertEquals(1, curve.getLevel(1));
+        assertEquals(1, curve.getLevel(25));
+        
+        assertEquals(Encumbered.DEFAULT_WALK_SPEED, curve.getWalkSpeed(0), DELTA);
+        assertEquals(Encumbered.DEFAULT_FLY_SPEED, curve.getFlySpeed(0), DELTA);
+        assertEquals(0.1F, curve.getWalkSpeed(1), DELTA);
+        assertEquals(0.05F, curve.getFlySpeed(1), DELTA);
+    }
+    
+    @Test
+    public void everyTierIsALevel() {
+        tier(150, 0.05, 0.02);
+        tier(200, 0, 0);
+        
+        SpeedCurve curve = load(0, 0);
+        
+        assertEquals(4, curve.getLevels());
+        assertEquals(1, curve.getLevel(1.49));
+        assertEquals(2, curve.getLevel(1.5));
+        assertEquals(2, curve.getLevel(1.99));
+        assertEquals(3, curve.getLevel(2));
+        assertEquals(3, curve.getLevel(10));
+        
+        assertEquals(0.05F, curve.getWalkSpeed(2), DELTA);
+        assertEquals(0.02F, curve.getFlySpeed(2), DELTA);
+        assertEquals(0F, curve.getWalkSpeed(3), DELTA);
+    }
+    
+    @Test
+    public void tiersWithTheSameSpeedsShareALevel() {
+        tier(150, 0.1, 0.05);
+        
+        SpeedCurve curve = load(0, 0);
+        
+        assertEquals(2, curve.getLevels());
+        assertEquals(curve.getLevel(1), curve.getLevel(1.75));
+    }
+    
+    @Test
+    public void smoothCurvesInterpolateBetweenTiers() {
+        config.set("Over Encumbered.Smooth", true);
+        tier(200, 0, 0);
+        
+        SpeedCurve curve = load(0, 0);
+        
+        assertEquals(0.1F, curve.getWalkSpeed(curve.getLevel(1)), DELTA);
+        assertEquals(0.05F, curve.getWalkSpeed(curve.getLevel(1.5)), DELTA);
+        assertEquals(0.025F, curve.getFlySpeed(curve.getLevel(1.5)), DELTA);
+        assertEquals(0F, curve.getWalkSpeed(curve.getLevel(2)), DELTA);
+        assertTrue(curve.getLevel(1.5) < curve.getLevel(1.51));
+    }
+    
+    @Test
+    public void enterMarginDelaysMovingUp() {
+        SpeedCurve curve = load(0.1, 0);
+        
+        assertEquals(0, curve.getLevel(1.05, 1, 0));
+        assertEquals(1, curve.getLevel(1.11, 1, 0));
+        assertEquals(1, curve.getLevel(1, 1, 1));
+    }
+    
+    @Test
+    public void leaveMarginDelaysMovingDown() {
+        SpeedCurve curve = load(0, 0.1);
+        
+        assertEquals(1, curve.getLevel(1, 1, 0));
+        assertEquals(1, curve.getLevel(0.95, 1, 1));
+        assertEquals(0, curve.getLevel(0.89, 1, 1));
+    }
+    
+    @Test
+    public void marginsNeverSkipPastTheLoad() {
+        tier(200, 0, 0);
+        
+        SpeedCurve curve = load(0.1, 0.1);
+        
+        // Past tier 100 by the margin but not past tier 200
+        assertEquals(1, curve.getLevel(2.05, 1, 0));
+        assertEquals(2, curve.getLevel(2.5, 1, 0));
+        assertEquals(1, curve.getLevel(1.5, 1, 2));
+    }
+    
+    @Test
+    public void noMaxCarryWeightIsTheTopLevel() {
+        tier(200, 0, 0);
+        
+        SpeedCurve curve = load(0, 0);
+        
+        assertEquals(2, curve.getLevel(0, 0, 0));
+    }
+    
+    @Test
+    public void badTiersAreReported() {
+        tier(0, 0, 0);
+        tier(1001, 0, 0);
+        config.set("Over Encumbered.Tiers.heavy.Walk Speed", 0);
+        
+        SpeedCurve curve = load(0, 0);
+        
+        assertEquals(3, warnings.size());
+        assertEquals(2, curve.getLevels());
+    }
+    
+    @Test
+    public void marginsAreNotPartOfEquality() {
+        assertEquals(load(0, 0), load(0.1, 0.2));
+        
+        SpeedCurve before = load(0, 0);
+        tier(150, 0.05, 0.02);
+        
+        assertNotEquals(before, load(0, 0));
+    }
+}
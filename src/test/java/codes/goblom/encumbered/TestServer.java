@@ -0,0 +1,255 @@
+/*
+ * Copyright (C) 2020 Bryan Larson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package codes.goblom.encumbered;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.logging.Logger;
+import org.bukkit.Bukkit;
+import org.bukkit.GameMode;
+import org.bukkit.Material;
+import org.bukkit.NamespacedKey;
+import org.bukkit.Server;
+import org.bukkit.Tag;
+import org.bukkit.entity.Player;
+import org.bukkit.inventory.ItemFactory;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.PlayerInventory;
+import org.bukkit.scheduler.BukkitScheduler;
+
+/**
+ * Just enough of a server for the parts of the Bukkit API the tests touch. 
+ * ItemStack asks the ItemFactory if it has meta, and tags are looked up 
+ * through the server. Scheduled tasks wait until a test runs them with 
+ * {@link #runTasks()}. Players are online from {@link #join(String, ItemStack[])} 
+ * until {@link #quit(Player)}.
+ * 
+ * @author Bryan Larson
+ */
+final class TestServer {
+    
+    private static final Map<String, Tag<Material>> TAGS = new HashMap();
+    private static final Deque<Runnable> TASKS = new ArrayDeque();
+    private static final Map<UUID, Player> PLAYERS = new LinkedHashMap();
+    
+    private TestServer() { }
+    
+    /**
+     * Safe to call more than once
+     */
+    static synchronized void install() {
+        if (Bukkit.getServer() != null) return;
+        
+        Logger logger = Logger.getLogger("Encumbered-Test");
+        ItemFactory factory = proxy(ItemFactory.class, (name, args) -> {
+            // Only stacks without meta are used, their meta is null
+            return name.equals("equals") ? args[0] == args[1] : null;
+        });
+        
+        BukkitScheduler scheduler = proxy(BukkitScheduler.class, (name, args) -> {
+            // Delays and periods are ignored, every task runs once
+            if (name.startsWith("runTask")) {
+                synchronized (TestServer.class) {
+                    TASKS.add((Runnable) args[1]);
+                }
+            }
+            
+            return null;
+        });
+        
+        Bukkit.setServer(proxy(Server.class, (name, args) -> {
+            switch (name) {
+                case "getLogger":
+                    return logger;
+                case "getItemFactory":
+                    return factory;
+                case "getScheduler":
+                    return scheduler;
+                case "getTag":
+                    return TAGS.get(args[0] + " " + args[1]);
+                case "getPlayer":
+                    return onlinePlayer(args[0]);
+                case "getOnlinePlayers":
+                    return onlinePlayers();
+                case "getName":
+                case "getVersion":
+                case "getBukkitVersion":
+                    return "test";
+                default:
+                    return null;
+            }
+        }));
+    }
+    
+    /**
+     * 
+     * @param registry {@link Tag#REGISTRY_ITEMS} or {@link Tag#REGISTRY_BLOCKS}
+     * @param key The key of the tag
+     * @param values The materials in the tag
+     */
+    static synchronized void addTag(String registry, NamespacedKey key, Set<Material> values) {
+        TAGS.put(registry + " " + key, proxy(Tag.class, (name, args) -> {
+            switch (name) {
+                case "getKey":
+                    return key;
+                case "getValues":
+                    return values;
+                case "isTagged":
+                    return values.contains(args[0]);
+                default:
+                    return null;
+            }
+        }));
+    }
+    
+    static synchronized void clearTags() {
+        TAGS.clear();
+    }
+    
+    /**
+     * Runs scheduled tasks in the order they were scheduled, including tasks 
+     * scheduled while running them, on the calling thread.
+     * 
+     * @return How many tasks were run
+     */
+    static int runTasks() {
+        int ran = 0;
+        Runnable task;
+        
+        while ((task = nextTask()) != null) {
+            task.run();
+            ran++;
+        }
+        
+        return ran;
+    }
+    
+    /**
+     * Runs the oldest scheduled task only
+     * 
+     * @return false if no task was scheduled
+     */
+    static boolean runTask() {
+        Runnable task = nextTask();
+        
+        if (task == null) return false;
+        
+        task.run();
+        return true;
+    }
+    
+    /**
+     * 
+     * @param name Name of the player
+     * @param contents The inventory of the player, changes to it are seen by the player
+     * @return An online survival player without permissions
+     */
+    static synchronized Player join(String name, ItemStack[] contents) {
+        UUID id = UUID.randomUUID();
+        PlayerInventory inventory = proxy(PlayerInventory.class, (method, args) -> {
+            switch (method) {
+                case "getSize":
+                    return contents.length;
+                case "getItem":
+                    return args[0] instanceof Integer ? contents[(Integer) args[0]] : null;
+                case "getContents":
+                    return contents;
+                default:
+                    return null;
+            }
+        });
+        
+        Player player = proxy(Player.class, (method, args) -> {
+            switch (method) {
+                case "getUniqueId":
+                    return id;
+                case "getName":
+                    return name;
+                case "getInventory":
+                    return inventory;
+                case "getGameMode":
+                    return GameMode.SURVIVAL;
+                case "hasPermission":
+                    return false;
+                case "getWalkSpeed":
+                    return 0.2f;
+                case "getFlySpeed":
+                    return 0.1f;
+                default:
+                    return null;
+            }
+        });
+        
+        PLAYERS.put(id, player);
+        return player;
+    }
+    
+    static synchronized void quit(Player player) {
+        PLAYERS.remove(player.getUniqueId());
+    }
+    
+    static synchronized void clearPlayers() {
+        PLAYERS.clear();
+    }
+    
+    private static synchronized Player onlinePlayer(Object id) {
+        return PLAYERS.get(id);
+    }
+    
+    private static synchronized Collection<Player> onlinePlayers() {
+        return new ArrayList(PLAYERS.values());
+    }
+    
+    static synchronized void clearTasks() {
+        TASKS.clear();
+    }
+    
+    private static synchronized Runnable nextTask() {
+        return TASKS.poll();
+    }
+    
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, Answer answer) {
+        return (T) Proxy.newProxyInstance(TestServer.class.getClassLoader(), new Class<?>[] { type }, (proxy, method, args) -> {
+            if (method.getDeclaringClass() == Object.class) {
+                switch (method.getName()) {
+                    case "equals":
+                        return proxy == args[0];
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    default:
+                        return type.getSimpleName();
+                }
+            }
+            
+            return answer.answer(method.getName(), args);
+        });
+    }
+    
+    private interface Answer {
+        
+        Object answer(String method, Object[] args);
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2020 Bryan Larson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package codes.goblom.encumbered;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import org.bukkit.Material;
+import org.bukkit.NamespacedKey;
+import org.bukkit.Tag;
+import org.bukkit.configuration.MemoryConfiguration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Expansion and precedence of the keys of weights.yml in {@link WeightRules}.
+ * 
+ * @author Bryan Larson
+ */
+public class WeightRulesTest {
+    
+    private static final double DELTA = 0.0;
+    
+    private final List<String> warnings = new ArrayList();
+    private Logger logger;
+    private MemoryConfiguration weights;
+    
+    @Before
+    public void setUp() {
+        TestServer.install();
+        TestServer.addTag(Tag.REGISTRY_ITEMS, NamespacedKey.minecraft("logs"), EnumSet.of(Material.OAK_LOG, Material.BIRCH_LOG));
+        TestServer.addTag(Tag.REGISTRY_BLOCKS, NamespacedKey.minecraft("wool"), EnumSet.of(Material.RED_WOOL, Material.WHITE_WOOL));
+        TestServer.addTag(Tag.REGISTRY_BLOCKS, NamespacedKey.minecraft("air"), EnumSet.of(Material.AIR, Material.CAVE_AIR));
+        
+        this.logger = Logger.getAnonymousLogger();
+        logger.setUseParentHandlers(false);
+        logger.addHandler(new Handler() {
+            @Override
+            public void publish(LogRecord record) {
+                warnings.add(record.getMessage());
+            }
+            
+            @Override
+            public void flush() { }
+            
+            @Override
+            public void close() { }
+        });
+        
+        this.weights = new MemoryConfiguration();
+    }
+    
+    @After
+    public void tearDown() {
+        TestServer.clearTags();
+    }
+    
+    private WeightTable compile(boolean countBundle) {
+        return WeightRules.compile(weights, countBundle, logger);
+    }
+    
+    @Test
+    public void namesBeatPatternsBeatTags() {
+        // Listed in reverse precedence, file order only matters between keys of the same kind
+        weights.set("BIRCH_LOG", 5);
+        weights.set("*_LOG", 3);
+        weights.set("#logs", 2);
+        
+        WeightTable table = compile(true);
+        
+        assertEquals(5, table.get(Material.BIRCH_LOG), DELTA);
+        assertEquals(3, table.get(Material.OAK_LOG), DELTA);
+        assertTrue(warnings.isEmpty());
+    }
+    
+    @Test
+    public void tagsApplyWhereNothingElseMatches() {
+        weights.set("#minecraft:logs", 2);
+        weights.set("OAK_LOG", 4);
+        
+        WeightTable table = compile(true);
+        
+        assertEquals(4, table.get(Material.OAK_LOG), DELTA);
+        assertEquals(2, table.get(Material.BIRCH_LOG), DELTA);
+        assertFalse(table.isSet(Material.STONE));
+    }
+    
+    @Test
+    public void laterKeysOfTheSameKindWin() {
+        weights.set("*_ORE", 3);
+        weights.set("DIAMOND_*", 4);
+        
+        WeightTable table = compile(true);
+        
+        assertEquals(4, table.get(Material.DIAMOND_ORE), DELTA);
+        assertEquals(3, table.get(Material.IRON_ORE), DELTA);
+    }
+    
+    @Test
+    public void questionMarkIsExactlyOneCharacter() {
+        weights.set("RED_????", 1);
+        weights.set("?_WOOL", 2);
+        
+        WeightTable table = compile(true);
+        
+        assertEquals(1, table.get(Material.RED_WOOL), DELTA);
+        assertFalse(table.isSet(Material.WHITE_WOOL));
+        assertEquals(1, warnings.size());
+        assertTrue(warnings.get(0).contains("?_WOOL"));
+    }
+    
+    @Test
+    public void blockTagsAreUsedWithoutAnItemTag() {
+        weights.set("#wool", 1.5);
+        
+        WeightTable table = compile(true);
+        
+        assertEquals(1.5, table.get(Material.RED_WOOL), DELTA);
+        assertEquals(1.5, table.get(Material.WHITE_WOOL), DELTA);
+    }
+    
+    @Test
+    public void airAndCountedBundlesAreLeftOut() {
+        weights.set("*", 1);
+        
+        WeightTable counted = compile(true);
+        
+        assertFalse(counted.isSet(Material.AIR));
+        assertFalse(counted.isSet(Material.BUNDLE));
+        assertTrue(counted.isSet(Material.STONE));
+        
+        WeightTable uncounted = compile(false);
+        
+        assertFalse(uncounted.isSet(Material.AIR));
+        assertTrue(uncounted.isSet(Material.BUNDLE));
+    }
+    
+    @Test
+    public void patternsSkipLegacyMaterials() {
+        weights.set("LEGACY_*", 1);
+        
+        WeightTable table = compile(true);
+        
+        assertFalse(table.isSet(Material.LEGACY_STONE));
+        assertEquals(1, warnings.size());
+    }
+    
+    @Test
+    public void badKeysAreReported() {
+        weights.set("NOT_A_MATERIAL", 1);
+        weights.set("#not_a_tag", 1);
+        weights.set("#air", 1);
+        weights.set("NOTHING_*", 1);
+        weights.set("AIR", 1);
+        
+        WeightTable table = compile(true);
+        
+        assertEquals(5, warnings.size());
+        assertTrue(warnings.get(0).contains("NOT_A_MATERIAL"));
+        assertTrue(warnings.get(1).contains("#not_a_tag"));
+        assertTrue(warnings.get(2).contains("#air"));
+        assertTrue(warnings.get(3).contains("NOTHING_*"));
+        assertFalse(table.isSet(Material.AIR));
+        assertFalse(table.isSet(Material.CAVE_AIR));
+    }
+}
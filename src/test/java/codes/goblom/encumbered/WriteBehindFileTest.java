@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2020 Bryan Larson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package codes.goblom.encumbered;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.plugin.Plugin;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Coalesced background writes of {@link WriteBehindFile}. Scheduled tasks 
+ * only run when a test runs them through {@link TestServer#runTasks()}.
+ * 
+ * @author Bryan Larson
+ */
+public class WriteBehindFileTest {
+    
+    private Path folder;
+    private File file;
+    private YamlConfiguration config;
+    private WriteBehindFile writer;
+    
+    @Before
+    public void setUp() throws IOException {
+        TestServer.install();
+        TestServer.clearTasks();
+        
+        Plugin plugin = (Plugin) Proxy.newProxyInstance(WriteBehindFileTest.class.getClassLoader(), new Class<?>[] { Plugin.class }, 
+                (proxy, method, args) -> method.getName().equals("getLogger") ? Logger.getGlobal() : null);
+        
+        this.folder = Files.createTempDirectory("encumbered");
+        this.file = folder.resolve("weights.yml").toFile();
+        this.config = new YamlConfiguration();
+        this.writer = new WriteBehindFile(plugin, config, file, 40);
+    }
+    
+    @After
+    public void tearDown() throws IOException {
+        TestServer.clearTasks();
+        
+        try (Stream<Path> files = Files.walk(folder)) {
+            files.sorted(Comparator.reverseOrder()).forEach((path) -> path.toFile().delete());
+        }
+    }
+    
+    private void change(String key, double weight) {
+        config.set(key, weight);
+        writer.markDirty();
+    }
+    
+    private String read() throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+    
+    @Test
+    public void changesWithinTheDelayAreWrittenOnce() throws IOException {
+        change("STONE", 1.0);
+        change("DIRT", 2.0);
+        change("STONE", 3.0);
+        
+        assertEquals(3, writer.getPendingChanges());
+        assertFalse(file.exists());
+        
+        // One delayed flush, then one background write
+        assertEquals(2, TestServer.runTasks());
+        
+        assertEquals(0, writer.getPendingChanges());
+        assertEquals(1, writer.getTotalFlushes());
+        assertTrue(read().contains("STONE: 3.0"));
+        assertTrue(read().contains("DIRT: 2.0"));
+    }
+    
+    @Test
+    public void closeWritesPendingChanges() throws IOException {
+        change("STONE", 1.0);
+        
+        writer.close();
+        
+        assertEquals(1, writer.getTotalFlushes());
+        assertTrue(read().contains("STONE: 1.0"));
+        
+        // The delayed flush finds the writer closed
+        TestServer.runTasks();
+        assertEquals(1, writer.getTotalFlushes());
+    }
+    
+    @Test( expected = IllegalStateException.class )
+    public void markDirtyAfterCloseThrows() {
+        writer.close();
+        
+        change("STONE", 1.0);
+    }
+    
+    @Test
+    public void olderWritesNeverReplaceNewerOnes() throws IOException {
+        change("STONE", 1.0);
+        
+        // Snapshot of STONE: 1.0 waits for its background write
+        assertTrue(TestServer.runTask());
+        
+        change("STONE", 2.0);
+        writer.flush();
+        
+        TestServer.runTasks();
+        
+        assertEquals(1, writer.getTotalFlushes());
+        assertTrue(read().contains("STONE: 2.0"));
+    }
+    
+    @Test
+    public void filesAreReplacedThroughATempFile() throws IOException {
+        Files.write(file.toPath(), "STONE: 9.0\n".getBytes(StandardCharsets.UTF_8));
+        
+        change("DIRT", 2.0);
+        writer.flush();
+        
+        assertEquals("DIRT: 2.0\n", read());
+        assertFalse(new File(folder.toFile(), "weights.yml.tmp").exists());
+        assertTrue(writer.getLastFlushLatency() > 0);
+    }
+}
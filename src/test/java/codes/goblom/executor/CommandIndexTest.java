@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2020 Bryan Larson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package codes.goblom.executor;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Lookups of registered commands through {@link CommandIndex}.
+ * 
+ * @author Bryan Larson
+ */
+public class CommandIndexTest {
+    
+    public static class Listener implements CommandListener {
+        
+        @CommandInfo(name = "setmaterial", alias = { "sm", "SetMat" }, permission = "test.setmaterial")
+        public void setMaterial(CommandContext context) { }
+        
+        @CommandInfo(name = "setcarriedweight", alias = { "scw" }, permission = "test.setcarriedweight")
+        public void setCarriedWeight(CommandContext context) { }
+        
+        @CommandInfo(name = "stats", alias = { "stats" }, permission = "test.stats")
+        public void stats(CommandContext context) { }
+        
+        @CommandInfo(name = "SM", permission = "test.clash")
+        public void clash(CommandContext context) { }
+    }
+    
+    private static final Listener LISTENER = new Listener();
+    
+    private static ExecMap map(String name) throws NoSuchMethodException {
+        Method method = Listener.class.getMethod(name, CommandContext.class);
+        
+        return new ExecMap(method, method.getAnnotation(CommandInfo.class), LISTENER, CommandInvoker.bind(method, LISTENER));
+    }
+    
+    @Test
+    public void namesAndAliasesMatchAnyCase() throws Exception {
+        CommandIndex index = new CommandIndex();
+        ExecMap setMaterial = map("setMaterial");
+        
+        index.addAll(Collections.singletonList(setMaterial));
+        
+        assertSame(setMaterial, index.get("setmaterial"));
+        assertSame(setMaterial, index.get("SETMATERIAL"));
+        assertSame(setMaterial, index.get("Sm"));
+        assertSame(setMaterial, index.get("setmat"));
+        assertNull(index.get("set"));
+    }
+    
+    @Test
+    public void aCommandMayRepeatItsOwnName() throws Exception {
+        CommandIndex index = new CommandIndex();
+        ExecMap stats = map("stats");
+        
+        index.addAll(Collections.singletonList(stats));
+        
+        assertSame(stats, index.get("STATS"));
+    }
+    
+    @Test
+    public void takenLabelsAddNothing() throws Exception {
+        CommandIndex index = new CommandIndex();
+        ExecMap setMaterial = map("setMaterial");
+        
+        index.addAll(Collections.singletonList(setMaterial));
+        
+        try {
+            index.addAll(Arrays.asList(map("setCarriedWeight"), map("clash")));
+            throw new AssertionError("Expected an IllegalStateException");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().contains("'sm'"));
+        }
+        
+        assertSame(setMaterial, index.get("sm"));
+        assertNull(index.get("setcarriedweight"));
+        assertNull(index.get("scw"));
+        assertEquals(Collections.singletonList(setMaterial), index.withPrefix("set"));
+    }
+    
+    @Test( expected = IllegalStateException.class )
+    public void labelsMustBeUniqueWithinOneAdd() throws Exception {
+        new CommandIndex().addAll(Arrays.asList(map("setMaterial"), map("clash")));
+    }
+    
+    @Test
+    public void prefixesMatchNamesInOrder() throws Exception {
+        CommandIndex index = new CommandIndex();
+        ExecMap setMaterial = map("setMaterial");
+        ExecMap setCarriedWeight = map("setCarriedWeight");
+        ExecMap stats = map("stats");
+        
+        index.addAll(Arrays.asList(stats, setMaterial, setCarriedWeight));
+        
+        assertEquals(Arrays.asList(setCarriedWeight, setMaterial), index.withPrefix("SET"));
+        assertEquals(Arrays.asList(setCarriedWeight, setMaterial, stats), index.withPrefix("s"));
+        assertEquals(Arrays.asList(setCarriedWeight, setMaterial, stats), index.withPrefix(""));
+        assertEquals(Collections.emptyList(), index.withPrefix("sm"));
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2020 Bryan Larson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package codes.goblom.executor;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Binding of @CommandInfo methods through {@link CommandInvoker#bind(Method, CommandListener)}.
+ * 
+ * @author Bryan Larson
+ */
+public class CommandInvokerTest {
+    
+    private static final CommandContext CONTEXT = new CommandContext(null, null, new String[0]);
+    
+    public static class PublicListener implements CommandListener {
+        
+        int calls = 0;
+        
+        @CommandInfo(name = "run", permission = "test.run")
+        public void run(CommandContext context) {
+            calls++;
+        }
+        
+        @CommandInfo(name = "fail", permission = "test.fail")
+        public void fail(CommandContext context) throws IOException {
+            throw new IOException("fail");
+        }
+        
+        @CommandInfo(name = "hidden", permission = "test.hidden")
+        void hidden(CommandContext context) {
+            calls++;
+        }
+        
+        @CommandInfo(name = "wrong", permission = "test.wrong")
+        public void wrong(String arg) { }
+    }
+    
+    static class PackageListener implements CommandListener {
+        
+        int calls = 0;
+        
+        @CommandInfo(name = "run", permission = "test.run")
+        public void run(CommandContext context) {
+            calls++;
+        }
+        
+        @CommandInfo(name = "fail", permission = "test.fail")
+        public void fail(CommandContext context) throws IOException {
+            throw new IOException("fail");
+        }
+    }
+    
+    private static CommandInvoker bind(CommandListener listener, String name) throws NoSuchMethodException {
+        for (Method method : listener.getClass().getDeclaredMethods()) {
+            if (method.getName().equals(name)) {
+                method.setAccessible(true);
+                
+                return CommandInvoker.bind(method, listener);
+            }
+        }
+        
+        throw new NoSuchMethodException(name);
+    }
+    
+    @Test
+    public void publicMethodsOfPublicListenersAreCalledDirectly() throws Throwable {
+        PublicListener listener = new PublicListener();
+        CommandInvoker invoker = bind(listener, "run");
+        
+        assertNotSame(BoundHandleInvoker.class, invoker.getClass());
+        
+        invoker.invoke(CONTEXT);
+        assertEquals(1, listener.calls);
+    }
+    
+    @Test
+    public void nonPublicMethodsUseABoundHandle() throws Throwable {
+        PublicListener listener = new PublicListener();
+        CommandInvoker invoker = bind(listener, "hidden");
+        
+        assertSame(BoundHandleInvoker.class, invoker.getClass());
+        
+        invoker.invoke(CONTEXT);
+        assertEquals(1, listener.calls);
+    }
+    
+    @Test
+    public void nonPublicListenersUseABoundHandle() throws Throwable {
+        PackageListener listener = new PackageListener();
+        CommandInvoker invoker = bind(listener, "run");
+        
+        assertSame(BoundHandleInvoker.class, invoker.getClass());
+        
+        invoker.invoke(CONTEXT);
+        assertEquals(1, listener.calls);
+    }
+    
+    @Test( expected = IOException.class )
+    public void directCallsThrowUnwrapped() throws Throwable {
+        bind(new PublicListener(), "fail").invoke(CONTEXT);
+    }
+    
+    @Test( expected = IOException.class )
+    public void boundHandlesThrowUnwrapped() throws Throwable {
+        bind(new PackageListener(), "fail").invoke(CONTEXT);
+    }
+    
+    @Test( expected = IllegalStateException.class )
+    public void methodsMustTakeACommandContext() throws Throwable {
+        bind(new PublicListener(), "wrong");
+    }
+}
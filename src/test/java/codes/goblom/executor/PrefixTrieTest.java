@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2020 Bryan Larson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package codes.goblom.executor;
+
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tab completion through {@link PrefixTrie#complete(String, int)}.
+ * 
+ * @author Bryan Larson
+ */
+public class PrefixTrieTest {
+    
+    private static PrefixTrie names() {
+        return new PrefixTrie(Arrays.asList("Notch", "jeb_", "Dinnerbone", "Grumm", "notch2", "Nathan"));
+    }
+    
+    @Test
+    public void completesInAlphabeticalOrder() {
+        assertEquals(Arrays.asList("Nathan", "Notch", "notch2"), names().complete("n", 10));
+    }
+    
+    @Test
+    public void matchesAnyCaseAndKeepsTheAddedCase() {
+        assertEquals(Arrays.asList("Notch", "notch2"), names().complete("NOT", 10));
+        assertEquals(Arrays.asList("Dinnerbone"), names().complete("dINNER", 10));
+    }
+    
+    @Test
+    public void emptyPrefixCompletesEverything() {
+        assertEquals(6, names().complete("", 10).size());
+        assertEquals(6, names().complete(null, 10).size());
+    }
+    
+    @Test
+    public void completionsAreCapped() {
+        assertEquals(Arrays.asList("Dinnerbone", "Grumm"), names().complete("", 2));
+        assertEquals(Collections.emptyList(), names().complete("", 0));
+    }
+    
+    @Test
+    public void unknownPrefixCompletesNothing() {
+        assertEquals(Collections.emptyList(), names().complete("x", 10));
+        assertEquals(Collections.emptyList(), names().complete("Notch22", 10));
+    }
+    
+    @Test
+    public void keysCanBeAPrefixOfOtherKeys() {
+        PrefixTrie trie = names();
+        
+        assertEquals(Arrays.asList("Notch", "notch2"), trie.complete("notch", 10));
+        
+        assertTrue(trie.remove("NOTCH"));
+        assertEquals(Arrays.asList("notch2"), trie.complete("notch", 10));
+        assertFalse(trie.contains("Notch"));
+        assertTrue(trie.contains("Notch2"));
+    }
+    
+    @Test
+    public void removeUpdatesCompletionsAndSize() {
+        PrefixTrie trie = names();
+        
+        assertTrue(trie.remove("notch2"));
+        assertFalse(trie.remove("notch2"));
+        assertFalse(trie.remove("nobody"));
+        
+        assertEquals(5, trie.size());
+        assertEquals(Arrays.asList("Nathan", "Notch"), trie.complete("n", 10));
+    }
+    
+    @Test
+    public void addingAKeyTwiceKeepsTheLatestCase() {
+        PrefixTrie trie = names();
+        
+        assertFalse(trie.add("JEB_"));
+        assertEquals(6, trie.size());
+        assertEquals(Arrays.asList("JEB_"), trie.complete("j", 10));
+    }
+}